@@ -46,6 +46,18 @@ public class MySupportActivity extends AppCompatActivity implements ISupportActi
         mDelegate.onPostCreate(savedInstanceState);
     }
 
+    @Override
+    protected void onPause() {
+        mDelegate.onPause();
+        super.onPause();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        mDelegate.onSaveInstanceState(outState);
+        super.onSaveInstanceState(outState);
+    }
+
     @Override
     protected void onDestroy() {
         mDelegate.onDestroy();
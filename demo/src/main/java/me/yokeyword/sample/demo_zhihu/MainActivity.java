@@ -63,6 +63,8 @@ public class MainActivity extends SupportActivity implements BaseMainFragment.On
             mFragments[THIRD] = findFragment(ZhihuThirdFragment.class);
             mFragments[FOURTH] = findFragment(ZhihuFourthFragment.class);
         }
+        // 只保留最近显示的2个tab的View, 其他tab连同子栈一起detach
+        setMultipleBackStack(R.id.fl_container, 2);
 
         initView();
     }
@@ -287,6 +287,38 @@ public class SupportFragment extends Fragment implements ISupportFragment {
         mDelegate.loadMultipleRootFragment(containerId, showPosition, toFragments);
     }
 
+    /**
+     * 加载多个同级根Fragment, 只创建showPosition的Fragment, 其他的在第一次显示时创建
+     */
+    public void loadMultipleRootFragment(int containerId, int showPosition, FragmentDescriptor... descriptors) {
+        mDelegate.loadMultipleRootFragment(containerId, showPosition, descriptors);
+    }
+
+    /**
+     * show position处的根Fragment(需要时创建), hide当前显示的根Fragment
+     */
+    public ISupportFragment showMultipleRootFragment(int containerId, int position) {
+        return mDelegate.showMultipleRootFragment(containerId, position);
+    }
+
+    /**
+     * 多回退栈: 只有最近显示的warmCount个tab保留View, 其他tab连同其子栈一起detach
+     *
+     * @see SupportFragmentDelegate#setMultipleBackStack(int, int)
+     */
+    public void setMultipleBackStack(int containerId, int warmCount) {
+        mDelegate.setMultipleBackStack(containerId, warmCount);
+    }
+
+    /**
+     * 把containerId内的栈变为stack: 保留相同的前缀, pop其余的, 再add缺少的, 只有栈顶有动画
+     *
+     * @see SupportFragmentDelegate#setStack(int, FragmentDescriptor...)
+     */
+    public void setStack(int containerId, FragmentDescriptor... stack) {
+        mDelegate.setStack(containerId, stack);
+    }
+
     /**
      * show一个Fragment,hide其他同栈所有Fragment
      * 使用该方法时，要确保同级栈内无多余的Fragment,(只有通过loadMultipleRootFragment()载入的Fragment)
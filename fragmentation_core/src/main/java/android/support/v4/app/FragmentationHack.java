@@ -8,6 +8,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import me.yokeyword.fragmentation.helper.internal.FragmentationTrace;
+
 /**
  * http://stackoverflow.com/questions/23504790/android-multiple-fragment-transaction-ordering
  * <p>
@@ -49,6 +51,7 @@ public class FragmentationHack {
         if (!sSupportLessThan25dot4) return;
         if (!(fragmentManager instanceof FragmentManagerImpl))
             return;
+        FragmentationTrace.beginSection("Fragmentation#reorderIndices");
         try {
             FragmentManagerImpl fragmentManagerImpl = (FragmentManagerImpl) fragmentManager;
             Object object = getValue(fragmentManagerImpl, "mAvailIndices");
@@ -60,6 +63,8 @@ public class FragmentationHack {
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            FragmentationTrace.endSection();
         }
     }
 
@@ -75,6 +80,53 @@ public class FragmentationHack {
         return false;
     }
 
+    public static boolean isDestroyed(FragmentManager fragmentManager) {
+        if (!(fragmentManager instanceof FragmentManagerImpl))
+            return false;
+        try {
+            FragmentManagerImpl fragmentManagerImpl = (FragmentManagerImpl) fragmentManager;
+            return fragmentManagerImpl.mDestroyed;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * @return the child FragmentManager of fragment, or null if it was never created.
+     */
+    public static FragmentManager peekChildFragmentManager(Fragment fragment) {
+        return fragment.mChildFragmentManager;
+    }
+
+    /**
+     * @return the fragments added by transaction, with add() or replace().
+     */
+    public static List<Fragment> getAddedFragments(FragmentTransaction transaction) {
+        return getOpFragments(transaction, BackStackRecord.OP_ADD, BackStackRecord.OP_REPLACE);
+    }
+
+    /**
+     * @return the fragments hidden by transaction.
+     */
+    public static List<Fragment> getHiddenFragments(FragmentTransaction transaction) {
+        return getOpFragments(transaction, BackStackRecord.OP_HIDE, BackStackRecord.OP_HIDE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Fragment> getOpFragments(FragmentTransaction transaction, int cmd, int otherCmd) {
+        if (!(transaction instanceof BackStackRecord)) return Collections.EMPTY_LIST;
+        ArrayList<BackStackRecord.Op> ops = ((BackStackRecord) transaction).mOps;
+        ArrayList<Fragment> fragments = new ArrayList<>();
+        for (int i = 0; i < ops.size(); i++) {
+            BackStackRecord.Op op = ops.get(i);
+            if ((op.cmd == cmd || op.cmd == otherCmd) && op.fragment != null) {
+                fragments.add(op.fragment);
+            }
+        }
+        return fragments;
+    }
+
     /**
      * On 25.4.0+，fragmentManager.getFragments () returns mAdd, instead of the mActive on 25.4.0-
      */
@@ -86,12 +138,15 @@ public class FragmentationHack {
         if (sSupportLessThan25dot4) return fragmentManager.getFragments();
 
         // For compat 25.4.0+
+        FragmentationTrace.beginSection("Fragmentation#getActiveFragments");
         try {
             FragmentManagerImpl fragmentManagerImpl = (FragmentManagerImpl) fragmentManager;
             // Since v4-25.4.0，mActive: ArrayList -> SparseArray
             return getActiveList(fragmentManagerImpl.mActive);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            FragmentationTrace.endSection();
         }
         return fragmentManager.getFragments();
     }
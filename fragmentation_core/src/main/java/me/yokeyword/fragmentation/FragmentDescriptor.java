@@ -0,0 +1,93 @@
+package me.yokeyword.fragmentation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.v4.app.Fragment;
+
+/**
+ * 描述一个Fragment: 类 + 参数(+ tag), 需要时才创建实例
+ * <p>
+ * The arguments are copied for every instance. The tag is the class name unless it's set by {@link #tag(String)}.
+ */
+public final class FragmentDescriptor implements Parcelable {
+    private final String mClassName;
+    private final Bundle mArguments;
+    private final String mTag;
+
+    public static <T extends Fragment & ISupportFragment> FragmentDescriptor of(Class<T> fragmentClass) {
+        return of(fragmentClass, null);
+    }
+
+    public static <T extends Fragment & ISupportFragment> FragmentDescriptor of(Class<T> fragmentClass, Bundle args) {
+        return new FragmentDescriptor(fragmentClass.getName(), args, null);
+    }
+
+    private FragmentDescriptor(String className, Bundle arguments, String tag) {
+        this.mClassName = className;
+        this.mArguments = arguments;
+        this.mTag = tag;
+    }
+
+    /**
+     * @return a new descriptor with the tag, e.g. to tell apart two descriptors of the same class.
+     */
+    public FragmentDescriptor tag(String tag) {
+        return new FragmentDescriptor(mClassName, mArguments, tag);
+    }
+
+    public String getClassName() {
+        return mClassName;
+    }
+
+    public Bundle getArguments() {
+        return mArguments;
+    }
+
+    public String getTag() {
+        return mTag != null ? mTag : mClassName;
+    }
+
+    /**
+     * @return true if fragment could be created by this descriptor: same class and same tag.
+     */
+    public boolean matches(Fragment fragment) {
+        return fragment != null && fragment.getClass().getName().equals(mClassName) && getTag().equals(fragment.getTag());
+    }
+
+    public ISupportFragment instantiate(Context context) {
+        Bundle args = mArguments == null ? new Bundle() : new Bundle(mArguments);
+        return (ISupportFragment) Fragment.instantiate(context, mClassName, args);
+    }
+
+    protected FragmentDescriptor(Parcel in) {
+        mClassName = in.readString();
+        mArguments = in.readBundle(getClass().getClassLoader());
+        mTag = in.readString();
+    }
+
+    public static final Creator<FragmentDescriptor> CREATOR = new Creator<FragmentDescriptor>() {
+        @Override
+        public FragmentDescriptor createFromParcel(Parcel in) {
+            return new FragmentDescriptor(in);
+        }
+
+        @Override
+        public FragmentDescriptor[] newArray(int size) {
+            return new FragmentDescriptor[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mClassName);
+        dest.writeBundle(mArguments);
+        dest.writeString(mTag);
+    }
+}
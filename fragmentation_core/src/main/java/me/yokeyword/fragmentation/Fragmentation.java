@@ -1,11 +1,16 @@
 package me.yokeyword.fragmentation;
 
+import android.content.Context;
 import android.support.annotation.IntDef;
 
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
 import me.yokeyword.fragmentation.helper.ExceptionHandler;
+import me.yokeyword.fragmentation.helper.NavigationMetricsListener;
+import me.yokeyword.fragmentation.helper.internal.FragmentationTrace;
+import me.yokeyword.fragmentation.helper.internal.LazyInitScheduler;
 
 /**
  * Created by YoKey on 17/2/5.
@@ -29,6 +34,12 @@ public class Fragmentation {
     private boolean debug;
     private int mode = NONE;
     private ExceptionHandler handler;
+    private boolean coalesceTransactions;
+    private boolean snapshotPopAnim;
+    private int maxLiveDepth;
+    private long lazyInitFrameBudget;
+    private NavigationMetricsListener navigationMetricsListener;
+    private boolean prefetchLazyRoots;
 
     @IntDef({NONE, SHAKE, BUBBLE})
     @Retention(RetentionPolicy.SOURCE)
@@ -52,6 +63,12 @@ public class Fragmentation {
             mode = builder.mode;
         }
         handler = builder.handler;
+        coalesceTransactions = builder.coalesceTransactions;
+        snapshotPopAnim = builder.snapshotPopAnim;
+        setMaxLiveDepth(builder.maxLiveDepth);
+        setLazyInitFrameBudget(builder.lazyInitFrameBudget);
+        navigationMetricsListener = builder.navigationMetricsListener;
+        prefetchLazyRoots = builder.prefetchLazyRoots;
     }
 
     public boolean isDebug() {
@@ -78,6 +95,73 @@ public class Fragmentation {
         this.mode = mode;
     }
 
+    public boolean isCoalesceTransactions() {
+        return coalesceTransactions;
+    }
+
+    public void setCoalesceTransactions(boolean coalesceTransactions) {
+        this.coalesceTransactions = coalesceTransactions;
+    }
+
+    public boolean isSnapshotPopAnim() {
+        return snapshotPopAnim;
+    }
+
+    public void setSnapshotPopAnim(boolean snapshotPopAnim) {
+        this.snapshotPopAnim = snapshotPopAnim;
+    }
+
+    public int getMaxLiveDepth() {
+        return maxLiveDepth;
+    }
+
+    public void setMaxLiveDepth(int maxLiveDepth) {
+        // The fragment below the top one must stay alive, it's shown while popping or swiping back.
+        this.maxLiveDepth = maxLiveDepth <= 0 ? 0 : Math.max(maxLiveDepth, 2);
+    }
+
+    public long getLazyInitFrameBudget() {
+        return lazyInitFrameBudget;
+    }
+
+    public void setLazyInitFrameBudget(long lazyInitFrameBudget) {
+        this.lazyInitFrameBudget = lazyInitFrameBudget;
+        LazyInitScheduler.setFrameBudget(lazyInitFrameBudget);
+    }
+
+    public NavigationMetricsListener getNavigationMetricsListener() {
+        return navigationMetricsListener;
+    }
+
+    public void setNavigationMetricsListener(NavigationMetricsListener navigationMetricsListener) {
+        this.navigationMetricsListener = navigationMetricsListener;
+    }
+
+    public boolean isPrefetchLazyRoots() {
+        return prefetchLazyRoots;
+    }
+
+    public void setPrefetchLazyRoots(boolean prefetchLazyRoots) {
+        this.prefetchLazyRoots = prefetchLazyRoots;
+    }
+
+    /**
+     * Record the trace sections of Fragmentation (start/pop/popTo, animations, visibility dispatch...)
+     * into a Chrome trace JSON file until {@link #stopTraceRecording()}.
+     * The file can be opened by chrome://tracing or https://ui.perfetto.dev
+     * <p>
+     * 录制导航过程的Trace, 文件保存在 getFilesDir()/fragmentation_trace/ 下
+     *
+     * @return the trace file, it's written on a background thread (a failure is logged).
+     */
+    public File startTraceRecording(Context context) {
+        return FragmentationTrace.startRecording(context.getApplicationContext());
+    }
+
+    public void stopTraceRecording() {
+        FragmentationTrace.stopRecording();
+    }
+
     public static FragmentationBuilder builder() {
         return new FragmentationBuilder();
     }
@@ -86,6 +170,12 @@ public class Fragmentation {
         private boolean debug;
         private int mode;
         private ExceptionHandler handler;
+        private boolean coalesceTransactions;
+        private boolean snapshotPopAnim;
+        private int maxLiveDepth;
+        private long lazyInitFrameBudget;
+        private NavigationMetricsListener navigationMetricsListener;
+        private boolean prefetchLazyRoots;
 
         /**
          * @param debug Suppressed Exception("Can not perform this action after onSaveInstanceState!") when debug=false
@@ -115,6 +205,78 @@ public class Fragmentation {
             return this;
         }
 
+        /**
+         * Collect the start()/showHideFragment()/remove() transactions issued against the same FragmentManager
+         * during one frame, and commit them together on the next frame. Only the last one is animated.
+         *
+         * Default:false
+         */
+        public FragmentationBuilder coalesceTransactions(boolean coalesce) {
+            this.coalesceTransactions = coalesce;
+            return this;
+        }
+
+        /**
+         * Run the exit anim of popTo()/startWithPop() on a snapshot of the outgoing Fragment's view,
+         * instead of moving the view into a temporary ViewGroup. The snapshot is removed when the anim ends.
+         *
+         * Default:false
+         */
+        public FragmentationBuilder snapshotPopAnim(boolean snapshotPopAnim) {
+            this.snapshotPopAnim = snapshotPopAnim;
+            return this;
+        }
+
+        /**
+         * The max number of Fragments that keep their views in each container. The hidden Fragments deeper than it
+         * are detached: their views are destroyed and the view state is saved, but they stay in the stack.
+         * They are attached again before pop()/popTo() reaches them.
+         *
+         * 0 means no limit, the min value is 2.
+         *
+         * Default:0
+         */
+        public FragmentationBuilder maxLiveDepth(int maxLiveDepth) {
+            this.maxLiveDepth = maxLiveDepth;
+            return this;
+        }
+
+        /**
+         * Run onLazyInitView() (and the phases of {@link ILazyInitPhases}) on frame callbacks, taking at most
+         * millis per frame: the visible Fragments first, then the ViewPager neighbours and the hidden tabs,
+         * which are lazy initialized before they are visible.
+         *
+         * 0 means onLazyInitView() is called synchronously when the Fragment is visible for the first time.
+         *
+         * Default:0
+         */
+        public FragmentationBuilder lazyInitFrameBudget(long millis) {
+            this.lazyInitFrameBudget = millis;
+            return this;
+        }
+
+        /**
+         * Measure every start()/pop()/popTo(): queue delay, commit time, time to the first frame of the target,
+         * animation duration and dropped frames. Nothing is measured when it's null.
+         *
+         * Default:null
+         */
+        public FragmentationBuilder navigationMetricsListener(NavigationMetricsListener listener) {
+            this.navigationMetricsListener = listener;
+            return this;
+        }
+
+        /**
+         * The roots of loadMultipleRootFragment(containerId, showPosition, FragmentDescriptor...) which are not shown
+         * yet are created hidden when the main thread is idle, one per idle, instead of on their first show.
+         *
+         * Default:false
+         */
+        public FragmentationBuilder prefetchLazyRoots(boolean prefetch) {
+            this.prefetchLazyRoots = prefetch;
+            return this;
+        }
+
         public Fragmentation install() {
             synchronized (Fragmentation.class) {
                 if (Fragmentation.INSTANCE != null) {
@@ -0,0 +1,21 @@
+package me.yokeyword.fragmentation;
+
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+
+/**
+ * 可分段的懒加载, SupportFragment实现该接口后, onLazyInitView()之后的初始化工作按阶段依次执行
+ * <p>
+ * With {@link Fragmentation.FragmentationBuilder#lazyInitFrameBudget(long)}, each phase is a separate step
+ * of the lazy-init scheduler, so the work can be spread over several frames. Otherwise all phases run right
+ * after onLazyInitView().
+ */
+public interface ILazyInitPhases {
+
+    int getLazyInitPhaseCount();
+
+    /**
+     * @param phase 0 ~ getLazyInitPhaseCount() - 1, called in order
+     */
+    void onLazyInitPhase(int phase, @Nullable Bundle savedInstanceState);
+}
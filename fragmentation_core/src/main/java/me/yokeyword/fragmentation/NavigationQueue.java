@@ -0,0 +1,175 @@
+package me.yokeyword.fragmentation;
+
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentationHack;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import me.yokeyword.fragmentation.helper.internal.FrameScheduler;
+
+/**
+ * 每个Activity唯一的导航命令队列, start()/pop()/popTo() 按调用顺序串行执行
+ * <p>
+ * - A command runs right away when the queue is idle, otherwise it waits for the next frame.
+ * - A command whose FragmentManager is executing its transactions blocks the queue until the next frame.
+ * - Commands issued while another command is running belong to it and run inline.
+ * - {@link #runNext(Command)} schedules a continuation on the next frame, ahead of the queued commands.
+ *   Continuations run in the order they were scheduled.
+ * - Identical pending commands are collapsed, and at most {@link #MAX_PENDING_COMMANDS} start/pop/popTo
+ *   commands can wait, the overflow is reported to the ExceptionHandler (thrown in debug).
+ */
+class NavigationQueue {
+    private static final String TAG = "Fragmentation";
+    static final int MAX_PENDING_COMMANDS = 32;
+
+    private final ArrayDeque<Command> mCommands = new ArrayDeque<>();
+    private final ArrayDeque<Command> mFollowUps = new ArrayDeque<>();
+    private final ArrayList<Command> mContinuations = new ArrayList<>();
+    private final FrameScheduler mScheduler;
+    private boolean mRunning;
+
+    NavigationQueue() {
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    void enqueue(Command command) {
+        if (mRunning) {
+            if (command.isBlocked()) {
+                runNext(command);
+            } else {
+                command.run();
+            }
+            return;
+        }
+
+        if (isPending(command)) return;
+
+        if (command.type != Command.FOLLOW_UP && mCommands.size() >= MAX_PENDING_COMMANDS) {
+            onOverflow(command);
+            return;
+        }
+
+        mCommands.addLast(command);
+        if (!mScheduler.isScheduled()) {
+            drain();
+        }
+    }
+
+    /**
+     * Run command on the next frame, before the commands that are already queued.
+     */
+    void runNext(Command command) {
+        if (mRunning) {
+            mContinuations.add(command);
+        } else {
+            mFollowUps.addLast(command);
+            mScheduler.schedule();
+        }
+    }
+
+    void clear() {
+        mScheduler.cancel();
+        mCommands.clear();
+        mFollowUps.clear();
+        mContinuations.clear();
+    }
+
+    private void drain() {
+        while (!mFollowUps.isEmpty() || !mCommands.isEmpty()) {
+            ArrayDeque<Command> queue = mFollowUps.isEmpty() ? mCommands : mFollowUps;
+            Command command = queue.peekFirst();
+            if (command.isBlocked()) {
+                mScheduler.schedule();
+                return;
+            }
+
+            queue.pollFirst();
+            mRunning = true;
+            try {
+                command.run();
+            } finally {
+                mRunning = false;
+            }
+
+            if (!mContinuations.isEmpty()) {
+                // Ahead of the follow-ups scheduled before, in their own order
+                for (int i = mContinuations.size() - 1; i >= 0; i--) {
+                    mFollowUps.addFirst(mContinuations.get(i));
+                }
+                mContinuations.clear();
+                mScheduler.schedule();
+                return;
+            }
+        }
+    }
+
+    private void onOverflow(Command command) {
+        IllegalStateException e = new IllegalStateException("Too many pending navigation commands, " + command + " is dropped!");
+        if (Fragmentation.getDefault().isDebug()) {
+            throw e;
+        }
+        Log.e(TAG, e.getMessage());
+        if (Fragmentation.getDefault().getHandler() != null) {
+            Fragmentation.getDefault().getHandler().onException(e);
+        }
+    }
+
+    private boolean isPending(Command command) {
+        if (!command.isCollapsible()) return false;
+
+        Iterator<Command> iterator = mCommands.iterator();
+        while (iterator.hasNext()) {
+            if (command.isSameAs(iterator.next())) return true;
+        }
+        return false;
+    }
+
+    abstract static class Command implements Runnable {
+        static final int START = 1;
+        static final int POP = 2;
+        static final int POP_TO = 3;
+        static final int FOLLOW_UP = 4;
+        static final int SET_STACK = 5;
+
+        final int type;
+        final FragmentManager fragmentManager;
+        final Object target;
+        final int arg;
+
+        /**
+         * @param target the fragment to start or the tag to pop to, null if the command can't be collapsed.
+         */
+        Command(int type, FragmentManager fragmentManager, Object target, int arg) {
+            this.type = type;
+            this.fragmentManager = fragmentManager;
+            this.target = target;
+            this.arg = arg;
+        }
+
+        boolean isBlocked() {
+            return fragmentManager != null && FragmentationHack.isExecutingActions(fragmentManager);
+        }
+
+        boolean isCollapsible() {
+            return target != null;
+        }
+
+        boolean isSameAs(Command other) {
+            return other.type == type && other.fragmentManager == fragmentManager
+                    && target.equals(other.target) && other.arg == arg;
+        }
+
+        @Override
+        public String toString() {
+            return "Command{type=" + type + ", target=" + target + "}";
+        }
+    }
+}
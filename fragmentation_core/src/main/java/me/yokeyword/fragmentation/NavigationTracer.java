@@ -0,0 +1,152 @@
+package me.yokeyword.fragmentation;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentationHack;
+import android.view.Choreographer;
+import android.view.View;
+
+import me.yokeyword.fragmentation.helper.NavigationMetrics;
+import me.yokeyword.fragmentation.helper.NavigationMetricsListener;
+import me.yokeyword.fragmentation.helper.internal.TransitionIdleQueue;
+
+/**
+ * 记录一次导航操作的耗时, 在动画结束的那一帧回调 {@link NavigationMetricsListener}
+ * <p>
+ * Only created when a listener is set, see {@link #begin(int, ISupportFragment)}.
+ * {@link #onExecuteEnd(ISupportActivity)} is only called when the command committed a transaction, otherwise
+ * the tracer is dropped without a report.
+ * After the execution, it follows the frames on Choreographer: the first frame that shows the target,
+ * then the frames until the activity's TransitionIdleQueue is idle, counting the dropped ones.
+ */
+class NavigationTracer {
+    private static final long TIMEOUT_NANOS = 5000 * 1000000L;
+    private static final double NANOS_PER_MS = 1000000d;
+
+    private final int mOperation;
+    private final long mCallTime;
+    private Fragment mFrom;
+    private Fragment mTo;
+
+    private FragmentManager mFragmentManager;
+    private TransitionIdleQueue mTransitionIdleQueue;
+    private long mFrameIntervalNanos;
+    private long mExecuteStartTime;
+    private long mExecuteEndTime;
+    private long mFirstFrameTime;
+    private long mLastFrameTime;
+    private int mDroppedFrames;
+
+    /**
+     * @return null if there is no NavigationMetricsListener, the calls on the tracer are skipped then.
+     */
+    static NavigationTracer begin(int operation, ISupportFragment to) {
+        if (Fragmentation.getDefault().getNavigationMetricsListener() == null) return null;
+        return new NavigationTracer(operation, (Fragment) to);
+    }
+
+    private NavigationTracer(int operation, Fragment to) {
+        this.mOperation = operation;
+        this.mTo = to;
+        mCallTime = System.nanoTime();
+    }
+
+    /**
+     * @param from the top Fragment before the navigation, null to look it up.
+     */
+    void onExecuteStart(FragmentManager fragmentManager, ISupportFragment from) {
+        mFragmentManager = fragmentManager;
+        if (from == null) {
+            from = SupportHelper.getTopFragment(fragmentManager);
+        }
+        mFrom = (Fragment) from;
+        mExecuteStartTime = System.nanoTime();
+    }
+
+    void onExecuteEnd(ISupportActivity support) {
+        mExecuteEndTime = System.nanoTime();
+        mTransitionIdleQueue = support.getSupportDelegate().getTransitionIdleQueue();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            float refreshRate = ((FragmentActivity) support).getWindowManager().getDefaultDisplay().getRefreshRate();
+            mFrameIntervalNanos = (long) (1000000000L / (refreshRate > 0 ? refreshRate : 60f));
+            new FrameTracker().post();
+        } else {
+            report(false);
+        }
+    }
+
+    /**
+     * @return true if the tracking is done.
+     */
+    private boolean onFrame(long frameTimeNanos) {
+        if (FragmentationHack.isDestroyed(mFragmentManager) || frameTimeNanos - mExecuteEndTime > TIMEOUT_NANOS) {
+            report(false);
+            return true;
+        }
+
+        if (mFirstFrameTime == 0) {
+            if (!isTargetShown()) return false;
+            mFirstFrameTime = frameTimeNanos;
+            mLastFrameTime = frameTimeNanos;
+        } else {
+            long skipped = Math.round((frameTimeNanos - mLastFrameTime) / (double) mFrameIntervalNanos) - 1;
+            if (skipped > 0) {
+                mDroppedFrames += skipped;
+            }
+            mLastFrameTime = frameTimeNanos;
+        }
+
+        if (mTransitionIdleQueue.isIdle()) {
+            report(true);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isTargetShown() {
+        if (mOperation == NavigationMetrics.OPERATION_START) {
+            View view = mTo.getView();
+            return mTo.isAdded() && view != null && view.getParent() != null;
+        }
+        // Popped once the old top is gone
+        if (mFrom != null && mFrom.isAdded() && !mFrom.isRemoving()) return false;
+        ISupportFragment top = SupportHelper.getTopFragment(mFragmentManager);
+        mTo = (Fragment) top;
+        return true;
+    }
+
+    private void report(boolean measured) {
+        NavigationMetricsListener listener = Fragmentation.getDefault().getNavigationMetricsListener();
+        if (listener == null) return;
+
+        long end = measured ? mLastFrameTime : System.nanoTime();
+        listener.onNavigation(new NavigationMetrics(mOperation,
+                mFrom == null ? null : mFrom.getClass(),
+                mTo == null ? null : mTo.getClass(),
+                (mExecuteStartTime - mCallTime) / NANOS_PER_MS,
+                (mExecuteEndTime - mExecuteStartTime) / NANOS_PER_MS,
+                measured ? (mFirstFrameTime - mExecuteEndTime) / NANOS_PER_MS : -1,
+                measured ? (mLastFrameTime - mFirstFrameTime) / NANOS_PER_MS : -1,
+                measured ? mDroppedFrames : -1,
+                (end - mCallTime) / NANOS_PER_MS));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class FrameTracker implements Choreographer.FrameCallback {
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!onFrame(frameTimeNanos)) {
+                post();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package me.yokeyword.fragmentation;
+
+import android.support.annotation.Nullable;
+import android.support.v4.app.FragmentActivity;
+import android.util.Log;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+
+import me.yokeyword.fragmentation.helper.StackDebugger;
+
+/**
+ * 创建StackDebugger: 依赖了 fragmentation-debug 时使用其实现, 否则使用空实现
+ * <p>
+ * The implementation class is looked up once per process.
+ */
+final class StackDebuggers {
+    private static final String TAG = "Fragmentation";
+
+    private static Constructor<?> sConstructor;
+    private static boolean sResolved;
+
+    private StackDebuggers() {
+    }
+
+    static StackDebugger create(FragmentActivity activity) {
+        Constructor<?> constructor = resolve();
+        if (constructor != null) {
+            try {
+                return (StackDebugger) constructor.newInstance(activity);
+            } catch (Exception e) {
+                Log.e(TAG, "Can't create " + StackDebugger.IMPL_CLASS_NAME, e);
+            }
+        }
+        return NoOpStackDebugger.INSTANCE;
+    }
+
+    private static Constructor<?> resolve() {
+        if (sResolved) return sConstructor;
+        sResolved = true;
+        try {
+            sConstructor = Class.forName(StackDebugger.IMPL_CLASS_NAME).getConstructor(FragmentActivity.class);
+        } catch (ClassNotFoundException e) {
+            // fragmentation-debug is not in this build
+        } catch (NoSuchMethodException e) {
+            Log.e(TAG, "Can't create " + StackDebugger.IMPL_CLASS_NAME, e);
+        }
+        return sConstructor;
+    }
+
+    private static final class NoOpStackDebugger implements StackDebugger {
+        static final NoOpStackDebugger INSTANCE = new NoOpStackDebugger();
+        private static final String MESSAGE = "The stack view needs the fragmentation-debug module.";
+
+        @Override
+        public void onCreate(int mode) {
+        }
+
+        @Override
+        public void onPostCreate(int mode) {
+        }
+
+        @Override
+        public void onDestroy() {
+        }
+
+        @Override
+        public void showFragmentStackHierarchyView() {
+            Log.w(TAG, MESSAGE);
+        }
+
+        @Override
+        public void logFragmentRecords(String tag) {
+            Log.w(TAG, MESSAGE);
+        }
+
+        @Override
+        public void exportFragmentRecords(File file, @Nullable ExportCallback callback) {
+            Log.w(TAG, MESSAGE);
+            if (callback != null) {
+                callback.onExported(file, new UnsupportedOperationException(MESSAGE));
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package me.yokeyword.fragmentation;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import android.os.Bundle;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.Nullable;
@@ -8,12 +10,16 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentationHack;
 import android.view.MotionEvent;
 
+import java.io.File;
+
 import me.yokeyword.fragmentation.anim.DefaultVerticalAnimator;
 import me.yokeyword.fragmentation.anim.FragmentAnimator;
-import me.yokeyword.fragmentation.debug.DebugStackDelegate;
+import me.yokeyword.fragmentation.helper.StackDebugger;
+import me.yokeyword.fragmentation.helper.internal.AnimatorHelper;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.TransitionIdleQueue;
 
 public class SupportActivityDelegate {
     private ISupportActivity mSupport;
@@ -25,7 +31,10 @@ public class SupportActivityDelegate {
     private TransactionDelegate mTransactionDelegate;
     private FragmentAnimator mFragmentAnimator;
     private int mDefaultFragmentBackground = 0;
-    private DebugStackDelegate mDebugStackDelegate;
+    private StackDebugger mStackDebugger;
+    private FragmentStackIndex.Tracker mStackTracker;
+    private ComponentCallbacks2 mTrimMemoryCallbacks;
+    private TransitionIdleQueue mTransitionIdleQueue;
 
     public SupportActivityDelegate(ISupportActivity support) {
         if (!(support instanceof Activity))
@@ -44,10 +53,42 @@ public class SupportActivityDelegate {
 
     public void onCreate(@Nullable Bundle savedInstanceState) {
         mTransactionDelegate = getTransactionDelegate();
-        mDebugStackDelegate = new DebugStackDelegate(mActivity);
+
+        mStackTracker = new FragmentStackIndex.Tracker(getSupportFragmentManager());
+        mStackTracker.register();
+
+        mTrimMemoryCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                SupportActivityDelegate.this.onTrimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                SupportActivityDelegate.this.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        };
+        mActivity.getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
 
         mFragmentAnimator = mSupport.onCreateFragmentAnimator();
-        mDebugStackDelegate.onCreate(Fragmentation.getDefault().getMode());
+        // The stack view is only created in debug mode, log/show/export create it on demand.
+        if (Fragmentation.getDefault().getMode() != Fragmentation.NONE) {
+            getStackDebugger().onCreate(Fragmentation.getDefault().getMode());
+        }
+    }
+
+    /**
+     * Runs the actions after the running transitions of their containers end, see enqueueAction().
+     */
+    TransitionIdleQueue getTransitionIdleQueue() {
+        if (mTransitionIdleQueue == null) {
+            mTransitionIdleQueue = new TransitionIdleQueue();
+        }
+        return mTransitionIdleQueue;
     }
 
     public TransactionDelegate getTransactionDelegate() {
@@ -58,7 +99,23 @@ public class SupportActivityDelegate {
     }
 
     public void onPostCreate(@Nullable Bundle savedInstanceState) {
-        mDebugStackDelegate.onPostCreate(Fragmentation.getDefault().getMode());
+        if (mStackDebugger != null) {
+            mStackDebugger.onPostCreate(Fragmentation.getDefault().getMode());
+        }
+    }
+
+    /**
+     * Commit the transactions batched for the next frame while it's still allowed.
+     */
+    public void onPause() {
+        mTransactionDelegate.flushAllPendingTransactions();
+    }
+
+    /**
+     * Call it before super.onSaveInstanceState(), see {@link #onPause()}.
+     */
+    public void onSaveInstanceState(Bundle outState) {
+        mTransactionDelegate.flushAllPendingTransactions();
     }
 
     /**
@@ -77,14 +134,14 @@ public class SupportActivityDelegate {
     public void setFragmentAnimator(FragmentAnimator fragmentAnimator) {
         this.mFragmentAnimator = fragmentAnimator;
 
-        for (Fragment fragment : FragmentationHack.getActiveFragments(getSupportFragmentManager())) {
+        for (Fragment fragment : FragmentStackIndex.getActiveFragments(getSupportFragmentManager())) {
             if (fragment instanceof ISupportFragment) {
                 ISupportFragment iF = (ISupportFragment) fragment;
                 SupportFragmentDelegate delegate = iF.getSupportDelegate();
                 if (delegate.mAnimByActivity) {
                     delegate.mFragmentAnimator = fragmentAnimator.copy();
                     if (delegate.mAnimHelper != null) {
-                        delegate.mAnimHelper.notifyChanged(delegate.mFragmentAnimator);
+                        delegate.mAnimHelper = AnimatorHelper.obtain(mActivity, delegate.mFragmentAnimator);
                     }
                 }
             }
@@ -121,14 +178,28 @@ public class SupportActivityDelegate {
      * 显示栈视图dialog,调试时使用
      */
     public void showFragmentStackHierarchyView() {
-        mDebugStackDelegate.showFragmentStackHierarchyView();
+        getStackDebugger().showFragmentStackHierarchyView();
     }
 
     /**
      * 显示栈视图日志,调试时使用
      */
     public void logFragmentStackHierarchy(String TAG) {
-        mDebugStackDelegate.logFragmentRecords(TAG);
+        getStackDebugger().logFragmentRecords(TAG);
+    }
+
+    /**
+     * 导出栈视图到JSON文件,调试时使用
+     */
+    public void exportFragmentStackHierarchy(File file, @Nullable StackDebugger.ExportCallback callback) {
+        getStackDebugger().exportFragmentRecords(file, callback);
+    }
+
+    private StackDebugger getStackDebugger() {
+        if (mStackDebugger == null) {
+            mStackDebugger = StackDebuggers.create(mActivity);
+        }
+        return mStackDebugger;
     }
 
     /**
@@ -158,8 +229,40 @@ public class SupportActivityDelegate {
         }
     }
 
+    /**
+     * Under memory pressure, destroy the views of the hidden fragments below the top ones in every container.
+     * The fragments stay in the stack and their views are rebuilt before pop()/popTo() reaches them.
+     * TRIM_MEMORY_UI_HIDDEN only means the user left the app, it's not memory pressure.
+     */
+    public void onTrimMemory(int level) {
+        int keepDepth;
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                keepDepth = 3;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                keepDepth = 2;
+                break;
+            default:
+                return;
+        }
+        if (mTransactionDelegate == null) return;
+        mTransactionDelegate.trimViews(getSupportFragmentManager(), keepDepth);
+    }
+
     public void onDestroy() {
-        mDebugStackDelegate.onDestroy();
+        mActivity.getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+        mTransactionDelegate.onDestroy();
+        if (mTransitionIdleQueue != null) {
+            mTransitionIdleQueue.clear();
+        }
+        if (mStackDebugger != null) {
+            mStackDebugger.onDestroy();
+        }
+        mStackTracker.unregister();
     }
 
     public boolean dispatchTouchEvent(MotionEvent ev) {
@@ -187,10 +290,52 @@ public class SupportActivityDelegate {
         mTransactionDelegate.loadMultipleRootTransaction(getSupportFragmentManager(), containerId, showPosition, toFragments);
     }
 
+    /**
+     * 加载多个同级根Fragment, 只创建showPosition的Fragment, 其他的在第一次显示时(或空闲预加载时)创建
+     * <p>
+     * Switch the tabs by {@link #showMultipleRootFragment(int, int)}.
+     */
+    public void loadMultipleRootFragment(int containerId, int showPosition, FragmentDescriptor... descriptors) {
+        mTransactionDelegate.loadLazyMultipleRootTransaction(getSupportFragmentManager(), containerId, showPosition, descriptors);
+    }
+
+    /**
+     * show position处的根Fragment(需要时创建), hide当前显示的根Fragment
+     *
+     * @return the shown Fragment
+     */
+    public ISupportFragment showMultipleRootFragment(int containerId, int position) {
+        return mTransactionDelegate.showLazyRootTransaction(getSupportFragmentManager(), containerId, position);
+    }
+
+    /**
+     * 多回退栈: containerId内的每个根Fragment(tab)有自己的子栈, 只有最近显示的warmCount个tab保留View,
+     * 其他tab连同其子栈一起detach(保留状态, 不保留View), 再次显示时attach恢复
+     * <p>
+     * The tabs are switched by showHideFragment()/showMultipleRootFragment(). Call it again after a restore.
+     *
+     * @param warmCount 0: never detach (default)
+     */
+    public void setMultipleBackStack(int containerId, int warmCount) {
+        mTransactionDelegate.setWarmRootCount(getSupportFragmentManager(), containerId, warmCount);
+    }
+
+    /**
+     * 把containerId内的栈变为stack(栈底在前): 保留相同的前缀, pop其余的, 再add缺少的, 一次执行
+     * <p>
+     * E.g. for a deep link. Only the new top is animated, the Fragments below it are created without views
+     * until a pop reveals them. A Fragment matches a descriptor by its class and tag, see {@link FragmentDescriptor}.
+     */
+    public void setStack(int containerId, FragmentDescriptor... stack) {
+        mTransactionDelegate.setStack(getSupportFragmentManager(), containerId, stack);
+    }
+
     /**
      * show一个Fragment,hide其他同栈所有Fragment
      * 使用该方法时，要确保同级栈内无多余的Fragment,(只有通过loadMultipleRootFragment()载入的Fragment)
      * <p>
+     * 对loadMultipleRootFragment()的容器, 只hide当前显示的根Fragment并立即提交(其上没有显示中的Fragment时)
+     * <p>
      * 建议使用更明确的{@link #showHideFragment(ISupportFragment, ISupportFragment)}
      *
      * @param showFragment 需要show的Fragment
@@ -13,12 +13,16 @@ import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
 import android.view.View;
 import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
 
 import me.yokeyword.fragmentation.anim.FragmentAnimator;
+import me.yokeyword.fragmentation.helper.internal.AnimationCache;
 import me.yokeyword.fragmentation.helper.internal.AnimatorHelper;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.FragmentationTrace;
+import me.yokeyword.fragmentation.helper.internal.PayloadStore;
 import me.yokeyword.fragmentation.helper.internal.ResultRecord;
 import me.yokeyword.fragmentation.helper.internal.TransactionRecord;
+import me.yokeyword.fragmentation.helper.internal.TransitionIdleQueue;
 import me.yokeyword.fragmentation.helper.internal.VisibleDelegate;
 
 public class SupportFragmentDelegate {
@@ -32,6 +36,8 @@ public class SupportFragmentDelegate {
     FragmentAnimator mFragmentAnimator;
     AnimatorHelper mAnimHelper;
     boolean mLockAnim;
+    // The view is destroyed to save memory, see TransactionDelegate.trimStack()
+    boolean mViewTrimmed;
     private int mCustomEnterAnim = Integer.MIN_VALUE;
 
     private Handler mHandler;
@@ -53,6 +59,8 @@ public class SupportFragmentDelegate {
     private ISupportActivity mSupport;
     boolean mAnimByActivity = true;
     EnterAnimListener mEnterAnimListener;
+    // The token of the running enter transition in TransitionIdleQueue
+    private Object mEnterAnimTransition;
 
     public SupportFragmentDelegate(ISupportFragment support) {
         if (!(support instanceof Fragment))
@@ -101,14 +109,25 @@ public class SupportFragmentDelegate {
             mFragmentAnimator = savedInstanceState.getParcelable(TransactionDelegate.FRAGMENTATION_STATE_SAVE_ANIMATOR);
             mIsHidden = savedInstanceState.getBoolean(TransactionDelegate.FRAGMENTATION_STATE_SAVE_IS_HIDDEN);
             mContainerId = savedInstanceState.getInt(TransactionDelegate.FRAGMENTATION_ARG_CONTAINER);
+            mViewTrimmed = savedInstanceState.getBoolean(TransactionDelegate.FRAGMENTATION_STATE_SAVE_VIEW_TRIMMED);
+            PayloadStore.restore(savedInstanceState.getBundle(TransactionDelegate.FRAGMENTATION_STATE_SAVE_PAYLOADS));
         }
 
         // Fix the overlapping BUG on pre-24.0.0
         processRestoreInstanceState(savedInstanceState);
-        mAnimHelper = new AnimatorHelper(_mActivity.getApplicationContext(), mFragmentAnimator);
+        mAnimHelper = AnimatorHelper.obtain(_mActivity, mFragmentAnimator);
     }
 
     public Animation onCreateAnimation(int transit, boolean enter, int nextAnim) {
+        FragmentationTrace.beginSection("Fragmentation#onCreateAnimation");
+        try {
+            return createAnimation(transit, enter);
+        } finally {
+            FragmentationTrace.endSection();
+        }
+    }
+
+    private Animation createAnimation(int transit, boolean enter) {
         if ((mSupport.getSupportDelegate().mPopMultipleNoAnim || mLockAnim)) {
             if (transit == FragmentTransaction.TRANSIT_FRAGMENT_CLOSE && enter) {
                 return mAnimHelper.getNoneAnimFixed();
@@ -121,15 +140,15 @@ public class SupportFragmentDelegate {
                 if (mRootStatus == STATUS_ROOT_ANIM_DISABLE) {
                     enterAnim = mAnimHelper.getNoneAnim();
                 } else {
-                    enterAnim = mAnimHelper.enterAnim;
-                    fixAnimationListener(enterAnim);
+                    enterAnim = mAnimHelper.obtainEnterAnim();
+                    fixAnimationListener(enterAnim, true);
                 }
                 return enterAnim;
             } else {
-                return mAnimHelper.popExitAnim;
+                return trackAnimation(mAnimHelper.obtainPopExitAnim());
             }
         } else if (transit == FragmentTransaction.TRANSIT_FRAGMENT_CLOSE) {
-            return enter ? mAnimHelper.popEnterAnim : mAnimHelper.exitAnim;
+            return trackAnimation(enter ? mAnimHelper.obtainPopEnterAnim() : mAnimHelper.obtainExitAnim());
         } else {
             if (mIsSharedElement && enter) {
                 compatSharedElements();
@@ -148,29 +167,37 @@ public class SupportFragmentDelegate {
         outState.putParcelable(TransactionDelegate.FRAGMENTATION_STATE_SAVE_ANIMATOR, mFragmentAnimator);
         outState.putBoolean(TransactionDelegate.FRAGMENTATION_STATE_SAVE_IS_HIDDEN, mFragment.isHidden());
         outState.putInt(TransactionDelegate.FRAGMENTATION_ARG_CONTAINER, mContainerId);
+        outState.putBoolean(TransactionDelegate.FRAGMENTATION_STATE_SAVE_VIEW_TRIMMED, mViewTrimmed);
+        savePayloads(outState);
     }
 
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
-        getVisibleDelegate().onActivityCreated(savedInstanceState);
-
-        View view = mFragment.getView();
-        if (view != null) {
-            view.setClickable(true);
-            setBackground(view);
-        }
+        FragmentationTrace.beginSection("Fragmentation#onActivityCreated");
+        try {
+            getVisibleDelegate().onActivityCreated(savedInstanceState);
+
+            View view = mFragment.getView();
+            if (view != null) {
+                view.setClickable(true);
+                setBackground(view);
+            }
 
-        if (savedInstanceState != null
-                || mRootStatus == STATUS_ROOT_ANIM_DISABLE
-                || (mFragment.getTag() != null && mFragment.getTag().startsWith("android:switcher:"))
-                || (mReplaceMode && !mFirstCreateView)) {
-            notifyEnterAnimEnd();
-        } else if (mCustomEnterAnim != Integer.MIN_VALUE) {
-            fixAnimationListener(mCustomEnterAnim == 0 ?
-                    mAnimHelper.getNoneAnim() : AnimationUtils.loadAnimation(_mActivity, mCustomEnterAnim));
-        }
+            if (savedInstanceState != null
+                    || mRootStatus == STATUS_ROOT_ANIM_DISABLE
+                    || (mFragment.getTag() != null && mFragment.getTag().startsWith("android:switcher:"))
+                    || (mReplaceMode && !mFirstCreateView)) {
+                notifyEnterAnimEnd();
+            } else if (mCustomEnterAnim != Integer.MIN_VALUE) {
+                // The custom Animation is loaded by FragmentManager, only its duration is known here
+                fixAnimationListener(mCustomEnterAnim == 0 ?
+                        mAnimHelper.getNoneAnim() : AnimationCache.getTemplate(_mActivity, mCustomEnterAnim), false);
+            }
 
-        if (mFirstCreateView) {
-            mFirstCreateView = false;
+            if (mFirstCreateView) {
+                mFirstCreateView = false;
+            }
+        } finally {
+            FragmentationTrace.endSection();
         }
     }
 
@@ -185,13 +212,23 @@ public class SupportFragmentDelegate {
     public void onDestroyView() {
         mSupport.getSupportDelegate().mFragmentClickable = true;
         getVisibleDelegate().onDestroyView();
+        // The enter animation may never end now
+        if (mEnterAnimTransition != null) {
+            getTransitionIdleQueue().endTransition(mEnterAnimTransition);
+        }
     }
 
     public void onDestroy() {
         mTransactionDelegate.handleResultRecord(mFragment);
+        getTransitionIdleQueue().cancel(this);
+        // The recreated Fragment still references the objects of its arguments
+        if (!_mActivity.isChangingConfigurations()) {
+            PayloadStore.release(mFragment.getArguments());
+        }
     }
 
     public void onHiddenChanged(boolean hidden) {
+        FragmentStackIndex.setHidden(mFragment.getFragmentManager(), mFragment, hidden);
         getVisibleDelegate().onHiddenChanged(hidden);
     }
 
@@ -208,7 +245,8 @@ public class SupportFragmentDelegate {
      * @param runnable start() , pop() or showHideFragment()
      */
     public void enqueueAction(Runnable runnable) {
-        getHandler().postDelayed(runnable, mAnimHelper == null ? 0 : mAnimHelper.enterAnim.getDuration());
+        // Runs after the transitions of this container (and of the parents' ones) end, cancelled if this Fragment is destroyed before
+        getTransitionIdleQueue().post(this, mFragment, TransitionIdleQueue.PRIORITY_NORMAL, runnable);
     }
 
     /**
@@ -283,7 +321,7 @@ public class SupportFragmentDelegate {
     public void setFragmentAnimator(FragmentAnimator fragmentAnimator) {
         this.mFragmentAnimator = fragmentAnimator;
         if (mAnimHelper != null) {
-            mAnimHelper.notifyChanged(fragmentAnimator);
+            mAnimHelper = AnimatorHelper.obtain(_mActivity, fragmentAnimator);
         }
         mAnimByActivity = false;
     }
@@ -303,6 +341,9 @@ public class SupportFragmentDelegate {
 
         ResultRecord resultRecord = args.getParcelable(TransactionDelegate.FRAGMENTATION_ARG_RESULT_RECORD);
         if (resultRecord != null) {
+            if (resultRecord.resultBundle != bundle) {
+                PayloadStore.release(resultRecord.resultBundle);
+            }
             resultRecord.resultCode = resultCode;
             resultRecord.resultBundle = bundle;
         }
@@ -383,10 +424,48 @@ public class SupportFragmentDelegate {
         mTransactionDelegate.loadMultipleRootTransaction(getChildFragmentManager(), containerId, showPosition, toFragments);
     }
 
+    /**
+     * 加载多个同级根Fragment, 只创建showPosition的Fragment, 其他的在第一次显示时(或空闲预加载时)创建
+     */
+    public void loadMultipleRootFragment(int containerId, int showPosition, FragmentDescriptor... descriptors) {
+        mTransactionDelegate.loadLazyMultipleRootTransaction(getChildFragmentManager(), containerId, showPosition, descriptors);
+    }
+
+    /**
+     * show position处的根Fragment(需要时创建), hide当前显示的根Fragment
+     */
+    public ISupportFragment showMultipleRootFragment(int containerId, int position) {
+        return mTransactionDelegate.showLazyRootTransaction(getChildFragmentManager(), containerId, position);
+    }
+
+    /**
+     * 多回退栈: containerId内的每个根Fragment(tab)有自己的子栈, 只有最近显示的warmCount个tab保留View,
+     * 其他tab连同其子栈一起detach(保留状态, 不保留View), 再次显示时attach恢复
+     * <p>
+     * The tabs are switched by showHideFragment()/showMultipleRootFragment(). Call it again after a restore.
+     *
+     * @param warmCount 0: never detach (default)
+     */
+    public void setMultipleBackStack(int containerId, int warmCount) {
+        mTransactionDelegate.setWarmRootCount(getChildFragmentManager(), containerId, warmCount);
+    }
+
+    /**
+     * 把containerId内的栈变为stack(栈底在前): 保留相同的前缀, pop其余的, 再add缺少的, 一次执行
+     * <p>
+     * E.g. for a deep link. Only the new top is animated, the Fragments below it are created without views
+     * until a pop reveals them. A Fragment matches a descriptor by its class and tag, see {@link FragmentDescriptor}.
+     */
+    public void setStack(int containerId, FragmentDescriptor... stack) {
+        mTransactionDelegate.setStack(getChildFragmentManager(), containerId, stack);
+    }
+
     /**
      * show一个Fragment,hide其他同栈所有Fragment
      * 使用该方法时，要确保同级栈内无多余的Fragment,(只有通过loadMultipleRootFragment()载入的Fragment)
      * <p>
+     * 对loadMultipleRootFragment()的容器, 只hide当前显示的根Fragment并立即提交(其上没有显示中的Fragment时)
+     * <p>
      * 建议使用更明确的{@link #showHideFragment(ISupportFragment, ISupportFragment)}
      */
     public void showHideFragment(ISupportFragment showFragment) {
@@ -518,15 +597,41 @@ public class SupportFragmentDelegate {
         }
     }
 
-    private void fixAnimationListener(Animation enterAnim) {
+    /**
+     * Parcel fallback of the objects put by SupportHelper.putObject() into the arguments and the result.
+     * Skipped on a configuration change: the objects stay in memory, and the recreated Activity saves again on its onStop().
+     */
+    private void savePayloads(Bundle outState) {
+        Bundle args = mFragment.getArguments();
+        if (args == null || _mActivity.isChangingConfigurations()) return;
+
+        Bundle payloads = new Bundle();
+        ResultRecord resultRecord = args.getParcelable(TransactionDelegate.FRAGMENTATION_ARG_RESULT_RECORD);
+        PayloadStore.save(payloads, args, resultRecord == null ? null : resultRecord.resultBundle);
+        if (!payloads.isEmpty()) {
+            outState.putBundle(TransactionDelegate.FRAGMENTATION_STATE_SAVE_PAYLOADS, payloads);
+        }
+    }
+
+    /**
+     * @param listen false if enterAnim is a template, then the transition ends after its duration.
+     */
+    private void fixAnimationListener(Animation enterAnim, boolean listen) {
         mSupport.getSupportDelegate().mFragmentClickable = false;
-        // AnimationListener is not reliable.
-        getHandler().postDelayed(new Runnable() {
+        mEnterAnimTransition = listen ? enterAnim : this;
+        Runnable onEnd = new Runnable() {
             @Override
             public void run() {
+                mEnterAnimTransition = null;
                 notifyEnterAnimEnd();
             }
-        }, enterAnim.getDuration());
+        };
+        // Ends on the real animation end, or after the duration if it never runs.
+        if (listen) {
+            getTransitionIdleQueue().trackAnimation(this, mFragment, enterAnim, onEnd);
+        } else {
+            getTransitionIdleQueue().beginTransition(this, mFragment, this, enterAnim.getDuration(), onEnd);
+        }
 
         if (mEnterAnimListener != null) {
             getHandler().post(new Runnable() {
@@ -539,6 +644,11 @@ public class SupportFragmentDelegate {
         }
     }
 
+    private Animation trackAnimation(Animation anim) {
+        getTransitionIdleQueue().trackAnimation(this, mFragment, anim, null);
+        return anim;
+    }
+
     private void compatSharedElements() {
         notifyEnterAnimEnd();
     }
@@ -569,7 +679,8 @@ public class SupportFragmentDelegate {
     }
 
     private void notifyEnterAnimEnd() {
-        getHandler().post(new Runnable() {
+        // Before the enqueued actions, they may start the next transition
+        getTransitionIdleQueue().post(this, mFragment, TransitionIdleQueue.PRIORITY_HIGH, new Runnable() {
             @Override
             public void run() {
                 if (mFragment == null) return;
@@ -586,6 +697,10 @@ public class SupportFragmentDelegate {
         return mHandler;
     }
 
+    private TransitionIdleQueue getTransitionIdleQueue() {
+        return mSupport.getSupportDelegate().getTransitionIdleQueue();
+    }
+
     public VisibleDelegate getVisibleDelegate() {
         if (mVisibleDelegate == null) {
             mVisibleDelegate = new VisibleDelegate(mSupportF);
@@ -1,14 +1,21 @@
 package me.yokeyword.fragmentation;
 
 import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentationHack;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 
+import java.io.File;
 import java.util.List;
 
+import me.yokeyword.fragmentation.helper.StackDebugger;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.PayloadStore;
+
 /**
  * Created by YoKey on 17/6/13.
  */
@@ -57,6 +64,40 @@ public class SupportHelper {
         support.getSupportDelegate().logFragmentStackHierarchy(TAG);
     }
 
+    /**
+     * 导出栈视图到JSON文件,调试时使用
+     * <p>
+     * Streams the whole hierarchy to file on a background thread, with the view count, the estimated bitmap bytes
+     * and the age of every Fragment. Unlike the log, it's never truncated.
+     *
+     * @param callback called on the main thread when the file is written, may be null
+     */
+    public static void exportFragmentStackHierarchy(ISupportActivity support, File file, @Nullable StackDebugger.ExportCallback callback) {
+        support.getSupportDelegate().exportFragmentStackHierarchy(file, callback);
+    }
+
+    /**
+     * 按引用传递参数/结果, Bundle内只保存一个令牌, 适合较大的对象
+     * <p>
+     * Put value into the arguments of start() or the bundle of setFragmentResult() by reference.
+     * It's only parceled when the Fragment's state is saved, and released with the Fragment (or after the result
+     * is delivered).
+     *
+     * @see #getObject(Bundle, String)
+     */
+    public static void putObject(Bundle bundle, String key, Object value) {
+        PayloadStore.put(bundle, key, value);
+    }
+
+    /**
+     * @return the value put by {@link #putObject(Bundle, String, Object)}, e.g. from getArguments() or the data of
+     * onFragmentResult().
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getObject(Bundle bundle, String key) {
+        return (T) PayloadStore.get(bundle, key);
+    }
+
     /**
      * 获得栈顶SupportFragment
      */
@@ -65,6 +106,11 @@ public class SupportHelper {
     }
 
     public static ISupportFragment getTopFragment(FragmentManager fragmentManager, int containerId) {
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            return getTopFragment(index, containerId);
+        }
+
         List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
         if (fragmentList == null) return null;
 
@@ -91,6 +137,15 @@ public class SupportHelper {
         FragmentManager fragmentManager = fragment.getFragmentManager();
         if (fragmentManager == null) return null;
 
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            Fragment preFragment = index.getPrevious(fragment);
+            while (preFragment != null && !(preFragment instanceof ISupportFragment)) {
+                preFragment = index.getPrevious(preFragment);
+            }
+            return (ISupportFragment) preFragment;
+        }
+
         List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
         if (fragmentList == null) return null;
 
@@ -134,6 +189,16 @@ public class SupportHelper {
     static <T extends ISupportFragment> T findStackFragment(Class<T> fragmentClass, String toFragmentTag, FragmentManager fragmentManager) {
         Fragment fragment = null;
 
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            fragment = toFragmentTag == null ? index.findByClass(fragmentClass) : index.findByTag(toFragmentTag);
+            if (fragment == null && toFragmentTag != null) {
+                fragment = fragmentManager.findFragmentByTag(toFragmentTag);
+            }
+            if (toFragmentTag == null && !(fragment instanceof ISupportFragment)) return null;
+            return (T) fragment;
+        }
+
         if (toFragmentTag == null) {
             List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
             if (fragmentList == null) return null;
@@ -154,8 +219,19 @@ public class SupportHelper {
         return (T) fragment;
     }
 
+    /**
+     * The container stacks also contain the fragments whose transaction is committed but not executed yet.
+     */
+    private static ISupportFragment getTopFragment(FragmentStackIndex index, int containerId) {
+        Fragment fragment = containerId == 0 ? index.getTop() : index.getTop(containerId);
+        while (fragment != null && !(fragment instanceof ISupportFragment)) {
+            fragment = containerId == 0 ? index.getPrevious(fragment) : index.getPreviousInContainer(fragment);
+        }
+        return (ISupportFragment) fragment;
+    }
+
     private static ISupportFragment getActiveFragment(FragmentManager fragmentManager, ISupportFragment parentFragment) {
-        List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
         if (fragmentList == null) {
             return parentFragment;
         }
@@ -0,0 +1,158 @@
+package me.yokeyword.fragmentation;
+
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.support.v4.app.FragmentationHack;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.FrameScheduler;
+
+/**
+ * 合并同一帧内对同一FragmentManager的事务, 在下一帧统一提交
+ * <p>
+ * Operations that don't add to the back stack share one FragmentTransaction, each back stack
+ * operation keeps its own record so that pop() still reverts exactly one step.
+ * Only the last transaction of a frame is animated.
+ * The Activity flushes the batch in onPause()/onSaveInstanceState(), so nothing is committed after the state is saved.
+ */
+class TransactionBatcher {
+    private final TransactionDelegate mTransactionDelegate;
+    private final ISupportActivity mSupport;
+    private final Map<FragmentManager, ArrayList<Entry>> mPending = new LinkedHashMap<>();
+    private final FrameScheduler mScheduler;
+
+    TransactionBatcher(ISupportActivity support, TransactionDelegate transactionDelegate) {
+        this.mSupport = support;
+        this.mTransactionDelegate = transactionDelegate;
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                flushAll();
+            }
+        });
+    }
+
+    /**
+     * Returns the transaction that the next operation against fragmentManager should be recorded in.
+     */
+    FragmentTransaction obtain(FragmentManager fragmentManager, boolean addToBackStack) {
+        ArrayList<Entry> entries = mPending.get(fragmentManager);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            mPending.put(fragmentManager, entries);
+        }
+
+        if (!addToBackStack && !entries.isEmpty()) {
+            Entry last = entries.get(entries.size() - 1);
+            if (!last.addToBackStack) {
+                return last.transaction;
+            }
+        }
+
+        Entry entry = new Entry(fragmentManager.beginTransaction(), addToBackStack);
+        entries.add(entry);
+        mScheduler.schedule();
+        return entry.transaction;
+    }
+
+    boolean isBatched(FragmentManager fragmentManager, FragmentTransaction transaction) {
+        ArrayList<Entry> entries = mPending.get(fragmentManager);
+        if (entries == null) return false;
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).transaction == transaction) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Commit the pending transactions of fragmentManager right now, e.g. before executePendingTransactions().
+     */
+    void flush(FragmentManager fragmentManager) {
+        ArrayList<Entry> entries = mPending.remove(fragmentManager);
+        if (mPending.isEmpty()) {
+            mScheduler.cancel();
+        }
+        commitEntries(fragmentManager, entries);
+    }
+
+    void flushAll() {
+        mScheduler.cancel();
+        if (mPending.isEmpty()) return;
+
+        ArrayList<Map.Entry<FragmentManager, ArrayList<Entry>>> pending = new ArrayList<>(mPending.entrySet());
+        mPending.clear();
+        for (Map.Entry<FragmentManager, ArrayList<Entry>> item : pending) {
+            commitEntries(item.getKey(), item.getValue());
+        }
+    }
+
+    /**
+     * Drop the pending transactions, e.g. in onDestroy().
+     */
+    void clear() {
+        mScheduler.cancel();
+        for (Map.Entry<FragmentManager, ArrayList<Entry>> item : mPending.entrySet()) {
+            dropEntries(item.getKey(), item.getValue());
+        }
+        mPending.clear();
+    }
+
+    private void commitEntries(FragmentManager fragmentManager, ArrayList<Entry> entries) {
+        if (entries == null || entries.isEmpty()) return;
+        if (FragmentationHack.isDestroyed(fragmentManager)) {
+            dropEntries(fragmentManager, entries);
+            return;
+        }
+
+        int last = entries.size() - 1;
+        if (last > 0 && !FragmentationHack.isExecutingActions(fragmentManager)) {
+            // Intermediate transitions are never seen, run them in one pass without animation.
+            SupportActivityDelegate delegate = mSupport.getSupportDelegate();
+            delegate.mPopMultipleNoAnim = true;
+            for (int i = 0; i < last; i++) {
+                mTransactionDelegate.commitTransaction(fragmentManager, entries.get(i).transaction);
+            }
+            fragmentManager.executePendingTransactions();
+            delegate.mPopMultipleNoAnim = false;
+        } else {
+            for (int i = 0; i < last; i++) {
+                mTransactionDelegate.commitTransaction(fragmentManager, entries.get(i).transaction);
+            }
+        }
+        mTransactionDelegate.commitTransaction(fragmentManager, entries.get(last).transaction);
+    }
+
+    /**
+     * The fragments were pushed into FragmentStackIndex when the transactions were recorded, revert it.
+     */
+    private void dropEntries(FragmentManager fragmentManager, ArrayList<Entry> entries) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            FragmentTransaction transaction = entries.get(i).transaction;
+            List<Fragment> added = FragmentationHack.getAddedFragments(transaction);
+            for (int j = 0; j < added.size(); j++) {
+                FragmentStackIndex.pop(fragmentManager, added.get(j));
+            }
+            List<Fragment> hidden = FragmentationHack.getHiddenFragments(transaction);
+            for (int j = 0; j < hidden.size(); j++) {
+                FragmentStackIndex.setHidden(fragmentManager, hidden.get(j), false);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final FragmentTransaction transaction;
+        final boolean addToBackStack;
+
+        Entry(FragmentTransaction transaction, boolean addToBackStack) {
+            this.transaction = transaction;
+            this.addToBackStack = addToBackStack;
+        }
+    }
+}
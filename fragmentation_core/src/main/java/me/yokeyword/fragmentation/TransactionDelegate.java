@@ -4,6 +4,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
@@ -14,11 +15,17 @@ import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import me.yokeyword.fragmentation.helper.NavigationMetrics;
+import me.yokeyword.fragmentation.helper.internal.AnimationCache;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.FragmentationTrace;
+import me.yokeyword.fragmentation.helper.internal.PayloadStore;
+import me.yokeyword.fragmentation.helper.internal.PopAnimSnapshot;
 import me.yokeyword.fragmentation.helper.internal.ResultRecord;
 import me.yokeyword.fragmentation.helper.internal.TransactionRecord;
 
@@ -38,9 +45,13 @@ class TransactionDelegate {
     static final String FRAGMENTATION_ARG_CONTAINER = "fragmentation_arg_container";
     static final String FRAGMENTATION_ARG_REPLACE = "fragmentation_arg_replace";
     static final String FRAGMENTATION_ARG_CUSTOM_END_ANIM = "fragmentation_arg_custom_end_anim";
+    static final String FRAGMENTATION_ARG_LAZY_ROOTS = "fragmentation_arg_lazy_roots";
+    static final String FRAGMENTATION_ARG_LAZY_ROOT_POSITION = "fragmentation_arg_lazy_root_position";
 
     static final String FRAGMENTATION_STATE_SAVE_ANIMATOR = "fragmentation_state_save_animator";
     static final String FRAGMENTATION_STATE_SAVE_IS_HIDDEN = "fragmentation_state_save_status";
+    static final String FRAGMENTATION_STATE_SAVE_VIEW_TRIMMED = "fragmentation_state_save_view_trimmed";
+    static final String FRAGMENTATION_STATE_SAVE_PAYLOADS = "fragmentation_state_save_payloads";
 
     static final int TYPE_ADD = 0;
     static final int TYPE_ADD_WITH_POP = 1;
@@ -58,11 +69,15 @@ class TransactionDelegate {
     private long mShareElementDebounceTime;
     private Handler mHandler;
     private FragmentManager mPopToTempFragmentManager;
+    private TransactionBatcher mTransactionBatcher;
+    private NavigationQueue mNavigationQueue;
+    private PopAnimSnapshot mPopAnimSnapshot;
 
     TransactionDelegate(ISupportActivity support) {
         this.mSupport = support;
         this.mActivity = (FragmentActivity) support;
         mHandler = new Handler(Looper.getMainLooper());
+        mNavigationQueue = new NavigationQueue();
     }
 
     void loadRootTransaction(FragmentManager fragmentManager, int containerId, ISupportFragment to, boolean addToBackStack, boolean allowAnimation) {
@@ -86,9 +101,13 @@ class TransactionDelegate {
 
             String toName = to.getClass().getName();
             ft.add(containerId, to, toName);
+            FragmentStackIndex.push(fragmentManager, to, containerId);
 
             if (i != showPosition) {
                 ft.hide(to);
+                FragmentStackIndex.setHidden(fragmentManager, to, true);
+            } else {
+                FragmentStackIndex.setShownRoot(fragmentManager, to);
             }
         }
 
@@ -96,14 +115,194 @@ class TransactionDelegate {
     }
 
     /**
-     * Dispatch the start transaction.
+     * Only the root at showPosition is added, the others are created when they are shown for the first time
+     * by {@link #showLazyRootTransaction(FragmentManager, int, int)}, or by the idle prefetch.
+     * <p>
+     * Every created root keeps the descriptors in its arguments, so the roots which are not created yet
+     * survive the restore.
      */
-    void dispatchStartTransaction(FragmentManager fragmentManager, ISupportFragment from, ISupportFragment to, int requestCode, int launchMode, int type) {
-        fragmentManager = checkFragmentManager(fragmentManager, from);
+    void loadLazyMultipleRootTransaction(FragmentManager fragmentManager, int containerId, int showPosition, FragmentDescriptor... descriptors) {
+        fragmentManager = checkFragmentManager(fragmentManager, null);
         if (fragmentManager == null) return;
 
+        ArrayList<FragmentDescriptor> descriptorList = new ArrayList<>(Arrays.asList(descriptors));
+        Fragment to = createLazyRoot(containerId, descriptorList, showPosition);
+        FragmentTransaction ft = fragmentManager.beginTransaction()
+                .add(containerId, to, descriptors[showPosition].getTag());
+        FragmentStackIndex.push(fragmentManager, to, containerId);
+        FragmentStackIndex.setShownRoot(fragmentManager, to);
+        supportCommit(fragmentManager, ft);
+
+        if (Fragmentation.getDefault().isPrefetchLazyRoots() && descriptors.length > 1) {
+            prefetchLazyRoots(fragmentManager, containerId);
+        }
+    }
+
+    /**
+     * Show the root at position of a lazy container, create it if needed, hide the shown one.
+     * One transaction, committed synchronously.
+     */
+    ISupportFragment showLazyRootTransaction(FragmentManager fragmentManager, int containerId, int position) {
+        fragmentManager = checkFragmentManager(fragmentManager, null);
+        if (fragmentManager == null) return null;
+        flushPendingTransactions(fragmentManager);
+
+        Fragment shown = findShownLazyRoot(fragmentManager, containerId);
+        if (shown == null) {
+            throw new RuntimeException("Can't find the lazy roots, please call loadMultipleRootFragment() first!");
+        }
+        ArrayList<FragmentDescriptor> descriptors = shown.getArguments().getParcelableArrayList(FRAGMENTATION_ARG_LAZY_ROOTS);
+        Fragment target = findLazyRoot(fragmentManager, containerId, descriptors.get(position), position);
+        if (target == shown) return (ISupportFragment) target;
+
+        if (target != null) {
+            switchShownRoot(fragmentManager, target, shown);
+            return (ISupportFragment) target;
+        }
+
+        target = createLazyRoot(containerId, descriptors, position);
+        FragmentTransaction ft = fragmentManager.beginTransaction()
+                .add(containerId, target, descriptors.get(position).getTag())
+                .hide(shown);
+        FragmentStackIndex.push(fragmentManager, target, containerId);
+        FragmentStackIndex.setHidden(fragmentManager, shown, true);
+        FragmentStackIndex.setShownRoot(fragmentManager, target);
+        switchRootViews(fragmentManager, ft, target);
+        commitTransactionNow(fragmentManager, ft);
+        return (ISupportFragment) target;
+    }
+
+    private Fragment createLazyRoot(int containerId, ArrayList<FragmentDescriptor> descriptors, int position) {
+        ISupportFragment root = descriptors.get(position).instantiate(mActivity);
+        bindContainerId(containerId, root);
+
+        Bundle args = getArguments((Fragment) root);
+        args.putInt(FRAGMENTATION_ARG_ROOT_STATUS, SupportFragmentDelegate.STATUS_ROOT_ANIM_DISABLE);
+        args.putParcelableArrayList(FRAGMENTATION_ARG_LAZY_ROOTS, descriptors);
+        args.putInt(FRAGMENTATION_ARG_LAZY_ROOT_POSITION, position);
+        return (Fragment) root;
+    }
+
+    private boolean isLazyRoot(Fragment fragment, int containerId) {
+        if (fragment == null || fragment.getArguments() == null) return false;
+        Bundle args = fragment.getArguments();
+        return args.containsKey(FRAGMENTATION_ARG_LAZY_ROOTS) && args.getInt(FRAGMENTATION_ARG_CONTAINER) == containerId;
+    }
+
+    private Fragment findShownLazyRoot(FragmentManager fragmentManager, int containerId) {
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            Fragment root = index.getShownRoot(containerId);
+            if (isLazyRoot(root, containerId)) return root;
+        }
+
+        // Restored, the shown root is the created one which is not hidden
+        Fragment found = null;
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
+        if (fragmentList != null) {
+            for (int i = 0; i < fragmentList.size(); i++) {
+                Fragment fragment = fragmentList.get(i);
+                if (!isLazyRoot(fragment, containerId)) continue;
+                found = fragment;
+                if (!fragment.isHidden()) break;
+            }
+        }
+        if (found != null && !found.isHidden()) {
+            FragmentStackIndex.setShownRoot(fragmentManager, found);
+        }
+        return found;
+    }
+
+    /**
+     * @return the created root at position, null if it's not created yet.
+     */
+    private Fragment findLazyRoot(FragmentManager fragmentManager, int containerId, FragmentDescriptor descriptor, int position) {
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        Fragment fragment = index != null ? index.findByTag(descriptor.getTag()) : fragmentManager.findFragmentByTag(descriptor.getTag());
+        if (isLazyRoot(fragment, containerId) && fragment.getArguments().getInt(FRAGMENTATION_ARG_LAZY_ROOT_POSITION) == position) {
+            return fragment;
+        }
+
+        // The same tag is used by another Fragment
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
+        if (fragmentList == null) return null;
+        for (int i = 0; i < fragmentList.size(); i++) {
+            fragment = fragmentList.get(i);
+            if (isLazyRoot(fragment, containerId) && fragment.getArguments().getInt(FRAGMENTATION_ARG_LAZY_ROOT_POSITION) == position) {
+                return fragment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create the roots which are not created yet, one per idle of the main thread, hidden.
+     */
+    private void prefetchLazyRoots(final FragmentManager fragmentManager, final int containerId) {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (FragmentationHack.isDestroyed(fragmentManager) || FragmentationHack.isStateSaved(fragmentManager)) {
+                    return false;
+                }
+                return prefetchNextLazyRoot(fragmentManager, containerId);
+            }
+        });
+    }
+
+    /**
+     * @return true if there may be more roots to create.
+     */
+    private boolean prefetchNextLazyRoot(FragmentManager fragmentManager, int containerId) {
+        Fragment shown = findShownLazyRoot(fragmentManager, containerId);
+        if (shown == null) return false;
+
+        ArrayList<FragmentDescriptor> descriptors = shown.getArguments().getParcelableArrayList(FRAGMENTATION_ARG_LAZY_ROOTS);
+        for (int i = 0; i < descriptors.size(); i++) {
+            if (findLazyRoot(fragmentManager, containerId, descriptors.get(i), i) != null) continue;
+
+            Fragment root = createLazyRoot(containerId, descriptors, i);
+            FragmentTransaction ft = fragmentManager.beginTransaction()
+                    .add(containerId, root, descriptors.get(i).getTag())
+                    .hide(root);
+            FragmentStackIndex.push(fragmentManager, root, containerId);
+            FragmentStackIndex.setHidden(fragmentManager, root, true);
+            supportCommit(fragmentManager, ft);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Dispatch the start transaction.
+     */
+    void dispatchStartTransaction(FragmentManager fragmentManager, final ISupportFragment from, final ISupportFragment to, final int requestCode, final int launchMode, final int type) {
+        final FragmentManager finalFragmentManager = checkFragmentManager(fragmentManager, from);
+        if (finalFragmentManager == null) return;
+
         checkNotNull(to, "toFragment == null");
 
+        final NavigationTracer tracer = NavigationTracer.begin(NavigationMetrics.OPERATION_START, to);
+        mNavigationQueue.enqueue(new NavigationQueue.Command(NavigationQueue.Command.START, finalFragmentManager, to, type) {
+            @Override
+            public void run() {
+                if (tracer != null) tracer.onExecuteStart(finalFragmentManager, from);
+                boolean committed;
+                FragmentationTrace.beginSection("Fragmentation#start");
+                try {
+                    committed = executeStartTransaction(finalFragmentManager, from, to, requestCode, launchMode, type);
+                } finally {
+                    FragmentationTrace.endSection();
+                }
+                if (tracer != null && committed) tracer.onExecuteEnd(mSupport);
+            }
+        });
+    }
+
+    /**
+     * @return false if no start transaction was committed, e.g. handled by the launch mode.
+     */
+    private boolean executeStartTransaction(FragmentManager fragmentManager, ISupportFragment from, ISupportFragment to, int requestCode, int launchMode, int type) {
         if (from != null) {
             if (from.getSupportDelegate().mContainerId == 0) {
                 Fragment fromF = (Fragment) from;
@@ -136,13 +335,180 @@ class TransactionDelegate {
             saveRequestCode((Fragment) to, requestCode);
         }
 
-        if (handleLaunchMode(fragmentManager, from, to, toFragmentTag, launchMode)) return;
+        if (handleLaunchMode(fragmentManager, from, to, toFragmentTag, launchMode)) return false;
 
         if (type == TYPE_ADD_WITH_POP) {
-            startWithPop(fragmentManager, from, to);
+            FragmentationTrace.beginSection("Fragmentation#startWithPop");
+            try {
+                executeStartWithPop(fragmentManager, from, to);
+            } finally {
+                FragmentationTrace.endSection();
+            }
         } else {
             start(fragmentManager, from, to, toFragmentTag, dontAddToBackStack, sharedElementList, false, type);
         }
+        return true;
+    }
+
+    /**
+     * Make stack the stack of containerId: the common prefix is kept, the rest is popped without anim,
+     * the missing ones are added, each with its back stack record, and executed together.
+     * Only the new top is animated. Like restoreStack(), the top maxLiveDepth (or 2) stay attached, so swipe-back
+     * has the one below the top to show; the deeper ones are created without views (detached, see mViewTrimmed)
+     * and attached by restoreStack() when a pop reveals them.
+     */
+    void setStack(FragmentManager fragmentManager, final int containerId, final FragmentDescriptor... stack) {
+        final FragmentManager finalFragmentManager = checkFragmentManager(fragmentManager, null);
+        if (finalFragmentManager == null) return;
+        if (stack == null || stack.length == 0) {
+            throw new IllegalArgumentException("The stack can't be empty!");
+        }
+
+        mNavigationQueue.enqueue(new NavigationQueue.Command(NavigationQueue.Command.SET_STACK, finalFragmentManager, null, 0) {
+            @Override
+            public void run() {
+                FragmentationTrace.beginSection("Fragmentation#setStack");
+                try {
+                    executeSetStack(finalFragmentManager, containerId, stack);
+                } finally {
+                    FragmentationTrace.endSection();
+                }
+            }
+        });
+    }
+
+    private void executeSetStack(FragmentManager fragmentManager, int containerId, FragmentDescriptor[] stack) {
+        flushPendingTransactions(fragmentManager);
+        fragmentManager.executePendingTransactions();
+
+        List<Fragment> current = getContainerStack(fragmentManager, containerId);
+        int keep = 0;
+        while (keep < current.size() && keep < stack.length && stack[keep].matches(current.get(keep))) {
+            keep++;
+        }
+        if (keep == stack.length) {
+            // Nothing to add, the plain popTo() animates the top
+            if (keep < current.size()) {
+                executePopTo(current.get(keep - 1).getTag(), false, null, fragmentManager, DEFAULT_POPTO_ANIM);
+            }
+            return;
+        }
+
+        if (keep < current.size()) {
+            int entryIndex = findFirstEntry(fragmentManager, current.subList(keep, current.size()));
+            if (entryIndex >= 0) {
+                // By id: a name-based INCLUSIVE pop also takes the consecutive entries with the same name, kept ones included
+                mSupport.getSupportDelegate().mPopMultipleNoAnim = true;
+                fragmentManager.popBackStackImmediate(fragmentManager.getBackStackEntryAt(entryIndex).getId(), FragmentManager.POP_BACK_STACK_INCLUSIVE);
+                mSupport.getSupportDelegate().mPopMultipleNoAnim = false;
+            }
+
+            current = getContainerStack(fragmentManager, containerId);
+            keep = 0;
+            while (keep < current.size() && keep < stack.length && stack[keep].matches(current.get(keep))) {
+                keep++;
+            }
+
+            // Not added to the back stack
+            FragmentTransaction ft = null;
+            for (int i = keep; i < current.size(); i++) {
+                Fragment fragment = current.get(i);
+                if (!fragment.isAdded() || fragment.isRemoving()) continue;
+                if (ft == null) {
+                    ft = fragmentManager.beginTransaction().setAllowOptimization(true);
+                }
+                ft.remove(fragment);
+                FragmentStackIndex.pop(fragmentManager, fragment);
+            }
+            if (ft != null) {
+                commitTransaction(fragmentManager, ft);
+            }
+        }
+
+        int keepDepth = Fragmentation.getDefault().getMaxLiveDepth();
+        if (keepDepth <= 0) keepDepth = 2;
+
+        Fragment prev = keep > 0 ? current.get(keep - 1) : null;
+        FragmentTransaction detachTransaction = null;
+        for (int i = keep; i < stack.length; i++) {
+            boolean isTop = i == stack.length - 1;
+            ISupportFragment to = stack[i].instantiate(mActivity);
+            Fragment toF = (Fragment) to;
+            bindContainerId(containerId, to);
+            Bundle args = getArguments(toF);
+            args.putBoolean(FRAGMENTATION_ARG_REPLACE, false);
+
+            FragmentTransaction ft = fragmentManager.beginTransaction().setAllowOptimization(true);
+            ft.add(containerId, toF, stack[i].getTag());
+            if (prev == null) {
+                args.putInt(FRAGMENTATION_ARG_ROOT_STATUS, SupportFragmentDelegate.STATUS_ROOT_ANIM_DISABLE);
+            } else {
+                ft.hide(prev);
+                FragmentStackIndex.setHidden(fragmentManager, prev, true);
+                if (isTop) {
+                    ft.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN);
+                }
+            }
+            ft.addToBackStack(stack[i].getTag());
+            FragmentStackIndex.push(fragmentManager, toF, containerId);
+            commitTransaction(fragmentManager, ft);
+
+            if (i < stack.length - keepDepth) {
+                // Executed with the adds, so the view is never created
+                to.getSupportDelegate().mViewTrimmed = true;
+                if (detachTransaction == null) {
+                    detachTransaction = fragmentManager.beginTransaction().setAllowOptimization(true);
+                }
+                detachTransaction.detach(toF);
+            }
+            prev = toF;
+        }
+        if (detachTransaction != null) {
+            commitTransaction(fragmentManager, detachTransaction);
+        }
+        fragmentManager.executePendingTransactions();
+    }
+
+    /**
+     * @return the index of the lowest back stack entry of fragments, counted from the top by name, or -1.
+     */
+    private int findFirstEntry(FragmentManager fragmentManager, List<Fragment> fragments) {
+        ArrayList<String> names = new ArrayList<>(fragments.size());
+        for (int i = 0; i < fragments.size(); i++) {
+            names.add(fragments.get(i).getTag());
+        }
+
+        int first = -1;
+        for (int i = fragmentManager.getBackStackEntryCount() - 1; i >= 0 && !names.isEmpty(); i--) {
+            if (names.remove(fragmentManager.getBackStackEntryAt(i).getName())) {
+                first = i;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return the fragments of containerId, the bottom first.
+     */
+    private List<Fragment> getContainerStack(FragmentManager fragmentManager, int containerId) {
+        ArrayList<Fragment> stack = new ArrayList<>();
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            for (Fragment fragment = index.getTop(containerId); fragment != null; fragment = index.getPreviousInContainer(fragment)) {
+                if (fragment.isRemoving()) continue;
+                stack.add(0, fragment);
+            }
+            return stack;
+        }
+
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
+        if (fragmentList == null) return stack;
+        for (int i = 0; i < fragmentList.size(); i++) {
+            Fragment fragment = fragmentList.get(i);
+            if (fragment == null || !fragment.isAdded() || fragment.isRemoving() || fragment.getId() != containerId) continue;
+            stack.add(fragment);
+        }
+        return stack;
     }
 
     void showHideFragment(FragmentManager fragmentManager, ISupportFragment showFragment, ISupportFragment hideFragment) {
@@ -151,26 +517,68 @@ class TransactionDelegate {
 
         if (showFragment == hideFragment) return;
 
-        FragmentTransaction ft = fragmentManager.beginTransaction().show((Fragment) showFragment);
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        Fragment shownRoot = null;
+        boolean multipleBackStack = false;
+        if (index != null && index.contains((Fragment) showFragment)) {
+            int containerId = index.getContainerId((Fragment) showFragment);
+            shownRoot = index.getShownRoot(containerId);
+            multipleBackStack = index.getWarmRootCount(containerId) > 0;
+            // Nothing shown above the current root, switching the roots is enough
+            if (hideFragment == null && shownRoot != null && shownRoot != showFragment
+                    && index.getTopShown(containerId) == shownRoot) {
+                switchShownRoot(fragmentManager, (Fragment) showFragment, shownRoot);
+                return;
+            }
+        }
+
+        FragmentTransaction ft = beginTransaction(fragmentManager, false).show((Fragment) showFragment);
+        FragmentStackIndex.setHidden(fragmentManager, (Fragment) showFragment, false);
+        // Restored multiple back stacks are tracked again from the first switch
+        if (shownRoot != null ? hideFragment == null || hideFragment == shownRoot : multipleBackStack) {
+            FragmentStackIndex.setShownRoot(fragmentManager, (Fragment) showFragment);
+        }
+        switchRootViews(fragmentManager, ft, (Fragment) showFragment);
 
         if (hideFragment == null) {
-            List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
+            List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
             if (fragmentList != null) {
-                for (Fragment fragment : fragmentList) {
+                for (int i = 0; i < fragmentList.size(); i++) {
+                    Fragment fragment = fragmentList.get(i);
                     if (fragment != null && fragment != showFragment) {
                         ft.hide(fragment);
+                        FragmentStackIndex.setHidden(fragmentManager, fragment, true);
                     }
                 }
             }
         } else {
             ft.hide((Fragment) hideFragment);
+            FragmentStackIndex.setHidden(fragmentManager, (Fragment) hideFragment, true);
         }
         supportCommit(fragmentManager, ft);
     }
 
+    /**
+     * Tab switch of a loadMultipleRootFragment() container: one show, one hide, committed synchronously.
+     */
+    private void switchShownRoot(FragmentManager fragmentManager, Fragment show, Fragment hide) {
+        // The batched transactions of this FragmentManager go first
+        flushPendingTransactions(fragmentManager);
+
+        FragmentTransaction ft = fragmentManager.beginTransaction()
+                .show(show)
+                .hide(hide);
+        FragmentStackIndex.setHidden(fragmentManager, show, false);
+        FragmentStackIndex.setHidden(fragmentManager, hide, true);
+        FragmentStackIndex.setShownRoot(fragmentManager, show);
+        switchRootViews(fragmentManager, ft, show);
+        commitTransactionNow(fragmentManager, ft);
+    }
+
     private void start(FragmentManager fragmentManager, final ISupportFragment from, ISupportFragment to, String toFragmentTag,
                        boolean dontAddToBackStack, ArrayList<TransactionRecord.SharedElement> sharedElementList, boolean allowRootFragmentAnim, int type) {
-        FragmentTransaction ft = fragmentManager.beginTransaction();
+        boolean addToBackStack = !dontAddToBackStack && type != TYPE_REPLACE_DONT_BACK;
+        FragmentTransaction ft = beginTransaction(fragmentManager, addToBackStack);
         boolean addMode = (type == TYPE_ADD || type == TYPE_ADD_RESULT || type == TYPE_ADD_WITHOUT_HIDE);
         Fragment fromF = (Fragment) from;
         Fragment toF = (Fragment) to;
@@ -199,6 +607,7 @@ class TransactionDelegate {
         }
         if (from == null) {
             ft.replace(args.getInt(FRAGMENTATION_ARG_CONTAINER), toF, toFragmentTag);
+            FragmentStackIndex.push(fragmentManager, toF, args.getInt(FRAGMENTATION_ARG_CONTAINER));
             if (!addMode) {
                 ft.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN);
                 args.putInt(FRAGMENTATION_ARG_ROOT_STATUS, allowRootFragmentAnim ?
@@ -209,16 +618,179 @@ class TransactionDelegate {
                 ft.add(from.getSupportDelegate().mContainerId, toF, toFragmentTag);
                 if (type != TYPE_ADD_WITHOUT_HIDE) {
                     ft.hide(fromF);
+                    FragmentStackIndex.setHidden(fragmentManager, fromF, true);
                 }
             } else {
                 ft.replace(from.getSupportDelegate().mContainerId, toF, toFragmentTag);
             }
+            FragmentStackIndex.push(fragmentManager, toF, from.getSupportDelegate().mContainerId);
         }
 
-        if (!dontAddToBackStack && type != TYPE_REPLACE_DONT_BACK) {
+        if (addToBackStack) {
             ft.addToBackStack(toFragmentTag);
         }
         supportCommit(fragmentManager, ft);
+
+        int maxLiveDepth = Fragmentation.getDefault().getMaxLiveDepth();
+        if (maxLiveDepth > 0 && from != null && addMode && type != TYPE_ADD_WITHOUT_HIDE) {
+            trimStack(fragmentManager, from.getSupportDelegate().mContainerId, maxLiveDepth);
+        }
+    }
+
+    /**
+     * Detach the hidden fragments deeper than keepDepth in the container, their views are destroyed.
+     * The Fragment instances stay in the stack, the back stack records reference them.
+     * The roots are neither counted nor detached: the tabs of loadMultipleRootFragment() are shown
+     * by showHideFragment(), not by a pop, so restoreStack() wouldn't attach them.
+     */
+    private void trimStack(FragmentManager fragmentManager, int containerId, int keepDepth) {
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index == null) return;
+        boolean stateSaved = FragmentationHack.isStateSaved(fragmentManager);
+
+        FragmentTransaction ft = null;
+        int depth = 0;
+        for (Fragment fragment = index.getTop(containerId); fragment != null; fragment = index.getPreviousInContainer(fragment)) {
+            if (!(fragment instanceof ISupportFragment) || isRoot(fragment)) continue;
+            if (++depth <= keepDepth) continue;
+            if (fragment.isDetached() || !index.isHidden(fragment) || fragment.getView() == null) continue;
+
+            markViewTrimmed(fragment);
+            if (ft == null) {
+                ft = stateSaved ? fragmentManager.beginTransaction() : beginTransaction(fragmentManager, false);
+            }
+            ft.detach(fragment);
+        }
+        if (ft == null) return;
+
+        if (stateSaved) {
+            // onTrimMemory() in background. The saved state still has the views, mViewTrimmed was saved as false.
+            ft.commitAllowingStateLoss();
+        } else {
+            // Committed after the start transaction, also when it's batched
+            supportCommit(fragmentManager, ft);
+        }
+    }
+
+    /**
+     * The view state is saved by the FragmentManager when the detach destroys the view, and restored on attach.
+     */
+    private void markViewTrimmed(Fragment fragment) {
+        SupportFragmentDelegate delegate = ((ISupportFragment) fragment).getSupportDelegate();
+        delegate.mViewTrimmed = true;
+        delegate.getVisibleDelegate().onViewTrimmed();
+    }
+
+    /**
+     * Multiple back stacks, called with the transaction showing the root show:
+     * attach show if it was detached, then detach the roots of its container beyond the warm count,
+     * the least recently shown first. A detached root keeps its state and its child stack, without views.
+     */
+    private void switchRootViews(FragmentManager fragmentManager, FragmentTransaction ft, Fragment show) {
+        if (show instanceof ISupportFragment) {
+            SupportFragmentDelegate delegate = ((ISupportFragment) show).getSupportDelegate();
+            if (delegate.mViewTrimmed) {
+                delegate.mViewTrimmed = false;
+                ft.attach(show);
+            }
+        }
+
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index == null || !index.contains(show)) return;
+        int containerId = index.getContainerId(show);
+        int warmCount = index.getWarmRootCount(containerId);
+        if (warmCount <= 0 || FragmentationHack.isStateSaved(fragmentManager)) return;
+
+        // The attached roots, the most recently shown first
+        ArrayList<Fragment> roots = new ArrayList<>();
+        for (Fragment fragment = index.getTop(containerId); fragment != null; fragment = index.getPreviousInContainer(fragment)) {
+            if (fragment == show || !(fragment instanceof ISupportFragment) || !isRoot(fragment)) continue;
+            if (fragment.isDetached() || ((ISupportFragment) fragment).getSupportDelegate().mViewTrimmed) continue;
+
+            int i = 0;
+            while (i < roots.size() && index.getShownOrder(roots.get(i)) >= index.getShownOrder(fragment)) {
+                i++;
+            }
+            roots.add(i, fragment);
+        }
+        // show is one of the warm roots
+        for (int i = warmCount - 1; i < roots.size(); i++) {
+            Fragment fragment = roots.get(i);
+            markViewTrimmed(fragment);
+            ft.detach(fragment);
+        }
+    }
+
+    private boolean isRoot(Fragment fragment) {
+        Bundle args = fragment.getArguments();
+        return args != null && args.getInt(FRAGMENTATION_ARG_ROOT_STATUS, SupportFragmentDelegate.STATUS_UN_ROOT)
+                != SupportFragmentDelegate.STATUS_UN_ROOT;
+    }
+
+    /**
+     * Keep the views of warmCount roots in containerId, detach the others (with their child stacks)
+     * when they are not shown.
+     */
+    void setWarmRootCount(FragmentManager fragmentManager, int containerId, int warmCount) {
+        fragmentManager = checkFragmentManager(fragmentManager, null);
+        if (fragmentManager == null) return;
+        FragmentStackIndex.setWarmRootCount(fragmentManager, containerId, warmCount);
+    }
+
+    /**
+     * Trim every container of fragmentManager and of the child FragmentManagers of the fragments that stay alive.
+     */
+    void trimViews(FragmentManager fragmentManager, int keepDepth) {
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index == null || FragmentationHack.isDestroyed(fragmentManager)) return;
+
+        for (int i = 0; i < index.getContainerCount(); i++) {
+            trimStack(fragmentManager, index.getContainerIdAt(i), keepDepth);
+        }
+
+        List<Fragment> fragmentList = index.getFragments();
+        for (int i = 0; i < fragmentList.size(); i++) {
+            Fragment fragment = fragmentList.get(i);
+            if (fragment instanceof ISupportFragment && !((ISupportFragment) fragment).getSupportDelegate().mViewTrimmed) {
+                FragmentManager childFragmentManager = FragmentationHack.peekChildFragmentManager(fragment);
+                if (childFragmentManager != null) {
+                    trimViews(childFragmentManager, keepDepth);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attach the trimmed fragments that are within the live depth once newTop is the top fragment,
+     * so their views are rebuilt before the popEnter anim starts.
+     * Must be called before the pop transaction is committed.
+     */
+    private void restoreStack(FragmentManager fragmentManager, Fragment newTop) {
+        if (newTop == null) return;
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index == null) return;
+
+        int maxDepth = Fragmentation.getDefault().getMaxLiveDepth();
+        // Without a limit, only the new top and the one below it that is shown while swiping back
+        if (maxDepth <= 0) maxDepth = 2;
+
+        FragmentTransaction ft = null;
+        int depth = 0;
+        for (Fragment fragment = newTop; fragment != null && depth < maxDepth; fragment = index.getPreviousInContainer(fragment)) {
+            if (!(fragment instanceof ISupportFragment)) continue;
+            depth++;
+            SupportFragmentDelegate delegate = ((ISupportFragment) fragment).getSupportDelegate();
+            if (!delegate.mViewTrimmed) continue;
+
+            delegate.mViewTrimmed = false;
+            if (ft == null) {
+                ft = fragmentManager.beginTransaction();
+            }
+            ft.attach(fragment);
+        }
+        if (ft != null) {
+            commitTransaction(fragmentManager, ft);
+        }
     }
 
     private void bindContainerId(int containerId, ISupportFragment to) {
@@ -235,41 +807,79 @@ class TransactionDelegate {
         return bundle;
     }
 
-    private void startWithPop(final FragmentManager fragmentManager, final ISupportFragment from, final ISupportFragment to) {
-        if (FragmentationHack.isExecutingActions(fragmentManager)) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    executeStartWithPop(fragmentManager, from, to);
-                }
-            });
-            return;
-        }
-
-        executeStartWithPop(fragmentManager, from, to);
-    }
-
     private void executeStartWithPop(final FragmentManager fragmentManager, final ISupportFragment from, final ISupportFragment to) {
+        flushPendingTransactions(fragmentManager);
         fragmentManager.executePendingTransactions();
         final ISupportFragment preFragment = getPreFragment((Fragment) from);
         final int fromContainerId = from.getSupportDelegate().mContainerId;
+        restoreStack(fragmentManager, (Fragment) preFragment);
 
-        mockStartWithPopAnim(from, to, from.getSupportDelegate().mAnimHelper.popExitAnim);
+        mockStartWithPopAnim(from, to, from.getSupportDelegate().mAnimHelper.obtainPopExitAnim());
         fragmentManager.popBackStackImmediate();
-        mHandler.post(new Runnable() {
+        mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, fragmentManager, null, 0) {
             @Override
             public void run() {
                 FragmentationHack.reorderIndices(fragmentManager);
                 if (preFragment != null && preFragment.getSupportDelegate().mContainerId == fromContainerId) {
                     preFragment.getSupportDelegate().start(to);
                 } else {
-                    dispatchStartTransaction(fragmentManager, from, to, 0, ISupportFragment.STANDARD, TYPE_ADD);
+                    executeStartTransaction(fragmentManager, from, to, 0, ISupportFragment.STANDARD, TYPE_ADD);
                 }
             }
         });
     }
 
+    /**
+     * In coalescing mode, the transaction is recorded into the batch of the current frame.
+     */
+    private FragmentTransaction beginTransaction(FragmentManager fragmentManager, boolean addToBackStack) {
+        if (Fragmentation.getDefault().isCoalesceTransactions()) {
+            return getTransactionBatcher().obtain(fragmentManager, addToBackStack);
+        }
+        return fragmentManager.beginTransaction();
+    }
+
     private void supportCommit(FragmentManager fragmentManager, FragmentTransaction transaction) {
+        if (mTransactionBatcher != null) {
+            // Committed with its batch on the next frame
+            if (mTransactionBatcher.isBatched(fragmentManager, transaction)) return;
+            // Keep the order of the transactions which are still waiting in the batch
+            mTransactionBatcher.flush(fragmentManager);
+        }
+        commitTransaction(fragmentManager, transaction);
+    }
+
+    /**
+     * Commit the transactions of all FragmentManagers which are waiting for the next frame,
+     * before the Activity saves its state.
+     */
+    void flushAllPendingTransactions() {
+        if (mTransactionBatcher != null) {
+            mTransactionBatcher.flushAll();
+        }
+    }
+
+    /**
+     * Commit the transactions of fragmentManager which are waiting for the next frame.
+     */
+    void flushPendingTransactions(FragmentManager fragmentManager) {
+        if (mTransactionBatcher != null) {
+            mTransactionBatcher.flush(fragmentManager);
+        }
+    }
+
+    /**
+     * Commit transaction and execute it right now, with the transactions committed before it,
+     * unless fragmentManager is already executing its transactions.
+     */
+    void commitTransactionNow(FragmentManager fragmentManager, FragmentTransaction transaction) {
+        commitTransaction(fragmentManager, transaction);
+        if (!FragmentationHack.isExecutingActions(fragmentManager)) {
+            fragmentManager.executePendingTransactions();
+        }
+    }
+
+    void commitTransaction(FragmentManager fragmentManager, FragmentTransaction transaction) {
         if (Fragmentation.getDefault().isDebug()) {
             transaction.commit();
         } else {
@@ -321,13 +931,13 @@ class TransactionDelegate {
         if (stackToFragment == null) return false;
 
         if (launchMode == ISupportFragment.SINGLETOP) {
-            if (to == topFragment || to.getClass().getName().equals(topFragment.getClass().getName())) {
+            if (to == topFragment || to.getClass() == topFragment.getClass()) {
                 handleNewBundle(to, stackToFragment);
                 return true;
             }
         } else if (launchMode == ISupportFragment.SINGLETASK) {
-            popTo(toFragmentTag, false, null, fragmentManager, 0);
-            mHandler.post(new Runnable() {
+            executePopTo(toFragmentTag, false, null, fragmentManager, 0);
+            mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, null, null, 0) {
                 @Override
                 public void run() {
                     handleNewBundle(to, stackToFragment);
@@ -365,25 +975,35 @@ class TransactionDelegate {
     }
 
     void handleResultRecord(Fragment from) {
-        final ISupportFragment preFragment = getPreFragment(from);
-        if (preFragment == null) return;
-
         Bundle args = from.getArguments();
         if (args == null || !args.containsKey(FRAGMENTATION_ARG_RESULT_RECORD)) return;
 
         final ResultRecord resultRecord = args.getParcelable(FRAGMENTATION_ARG_RESULT_RECORD);
         if (resultRecord == null) return;
 
-        mHandler.post(new Runnable() {
+        final ISupportFragment preFragment = getPreFragment(from);
+        if (preFragment == null) {
+            if (!mActivity.isChangingConfigurations()) {
+                PayloadStore.release(resultRecord.resultBundle);
+            }
+            return;
+        }
+
+        // Called from onDestroy(), deliver it after the pop transaction is executed
+        mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, from.getFragmentManager(), null, 0) {
             @Override
             public void run() {
                 preFragment.onFragmentResult(resultRecord.requestCode, resultRecord.resultCode, resultRecord.resultBundle);
+                // The objects put by SupportHelper.putObject() are only valid inside onFragmentResult()
+                if (!mActivity.isChangingConfigurations()) {
+                    PayloadStore.release(resultRecord.resultBundle);
+                }
             }
         });
     }
 
     void remove(FragmentManager fm, Fragment fragment, boolean showPreFragment) {
-        FragmentTransaction ft = fm.beginTransaction()
+        FragmentTransaction ft = beginTransaction(fm, false)
                 .setTransition(FragmentTransaction.TRANSIT_FRAGMENT_CLOSE)
                 .remove(fragment);
 
@@ -391,23 +1011,45 @@ class TransactionDelegate {
             ISupportFragment preFragment = SupportHelper.getPreFragment(fragment);
             if (preFragment instanceof Fragment) {
                 ft.show((Fragment) preFragment);
+                FragmentStackIndex.setHidden(fm, (Fragment) preFragment, false);
             }
         }
+        FragmentStackIndex.pop(fm, fragment);
         supportCommit(fm, ft);
     }
 
 
     void back(FragmentManager fm) {
-        fm = checkFragmentManager(fm, null);
-        if (fm == null) return;
+        final FragmentManager finalFragmentManager = checkFragmentManager(fm, null);
+        if (finalFragmentManager == null) return;
 
+        final NavigationTracer tracer = NavigationTracer.begin(NavigationMetrics.OPERATION_POP, null);
+        mNavigationQueue.enqueue(new NavigationQueue.Command(NavigationQueue.Command.POP, finalFragmentManager, null, 0) {
+            @Override
+            public void run() {
+                if (tracer != null) tracer.onExecuteStart(finalFragmentManager, null);
+                boolean committed;
+                FragmentationTrace.beginSection("Fragmentation#pop");
+                try {
+                    committed = executeBack(finalFragmentManager);
+                } finally {
+                    FragmentationTrace.endSection();
+                }
+                if (tracer != null && committed) tracer.onExecuteEnd(mSupport);
+            }
+        });
+    }
+
+    /**
+     * @return false if there was nothing to pop or the pop was debounced.
+     */
+    private boolean executeBack(FragmentManager fm) {
+        flushPendingTransactions(fm);
         int count = fm.getBackStackEntryCount();
-        if (count > 0) {
-            executeDebouncePop(fm);
-        }
+        return count > 0 && executeDebouncePop(fm);
     }
 
-    private void executeDebouncePop(FragmentManager fm) {
+    private boolean executeDebouncePop(FragmentManager fm) {
         Fragment popF = fm.findFragmentByTag(fm.getBackStackEntryAt(fm.getBackStackEntryCount() - 1).getName());
         if (popF instanceof ISupportFragment) {
             ISupportFragment supportF = (ISupportFragment) popF;
@@ -415,13 +1057,18 @@ class TransactionDelegate {
                 long now = System.currentTimeMillis();
                 if (now < mShareElementDebounceTime) {
                     mShareElementDebounceTime = System.currentTimeMillis() + supportF.getSupportDelegate().mAnimHelper.exitAnim.getDuration();
-                    return;
+                    return false;
                 }
             }
             mShareElementDebounceTime = System.currentTimeMillis() + supportF.getSupportDelegate().mAnimHelper.exitAnim.getDuration();
         }
 
+        FragmentStackIndex index = FragmentStackIndex.get(fm);
+        if (index != null && popF != null) {
+            restoreStack(fm, index.getPreviousInContainer(popF));
+        }
         fm.popBackStack();
+        return true;
     }
 
     /**
@@ -431,29 +1078,39 @@ class TransactionDelegate {
      * @param includeTargetFragment Whether it includes targetFragment
      */
     void popTo(final String targetFragmentTag, final boolean includeTargetFragment, final Runnable afterPopTransactionRunnable, FragmentManager fragmentManager, final int popAnim) {
-        fragmentManager = checkFragmentManager(fragmentManager, null);
-        if (fragmentManager == null) return;
+        final FragmentManager finalFragmentManager = checkFragmentManager(fragmentManager, null);
+        if (finalFragmentManager == null) return;
 
-        if (FragmentationHack.isExecutingActions(fragmentManager)) {
-            final FragmentManager finalFragmentManager = fragmentManager;
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    executePopTo(targetFragmentTag, includeTargetFragment, afterPopTransactionRunnable, finalFragmentManager, popAnim);
+        // Only the plain popTo() can be collapsed, a Runnable or custom anim makes it unique.
+        String collapseKey = afterPopTransactionRunnable == null && popAnim == DEFAULT_POPTO_ANIM ? targetFragmentTag : null;
+        final NavigationTracer tracer = NavigationTracer.begin(NavigationMetrics.OPERATION_POP_TO, null);
+        mNavigationQueue.enqueue(new NavigationQueue.Command(NavigationQueue.Command.POP_TO, finalFragmentManager, collapseKey, includeTargetFragment ? 1 : 0) {
+            @Override
+            public void run() {
+                if (tracer != null) tracer.onExecuteStart(finalFragmentManager, null);
+                boolean committed;
+                FragmentationTrace.beginSection("Fragmentation#popTo");
+                try {
+                    committed = executePopTo(targetFragmentTag, includeTargetFragment, afterPopTransactionRunnable, finalFragmentManager, popAnim);
+                } finally {
+                    FragmentationTrace.endSection();
                 }
-            });
-            return;
-        }
-        executePopTo(targetFragmentTag, includeTargetFragment, afterPopTransactionRunnable, fragmentManager, popAnim);
+                if (tracer != null && committed) tracer.onExecuteEnd(mSupport);
+            }
+        });
     }
 
-    private void executePopTo(final String targetFragmentTag, boolean includeTargetFragment, final Runnable afterPopTransactionRunnable, FragmentManager fragmentManager, int popAnim) {
+    /**
+     * @return false if the target fragment wasn't found, nothing is popped then.
+     */
+    private boolean executePopTo(final String targetFragmentTag, boolean includeTargetFragment, final Runnable afterPopTransactionRunnable, FragmentManager fragmentManager, int popAnim) {
+        flushPendingTransactions(fragmentManager);
         fragmentManager.executePendingTransactions();
         Fragment targetFragment = fragmentManager.findFragmentByTag(targetFragmentTag);
 
         if (targetFragment == null) {
             Log.e(TAG, "Pop failure! Can't find FragmentTag:" + targetFragmentTag + " in the FragmentManager's Stack.");
-            return;
+            return false;
         }
 
         int flag = 0;
@@ -461,12 +1118,13 @@ class TransactionDelegate {
             flag = FragmentManager.POP_BACK_STACK_INCLUSIVE;
             targetFragment = (Fragment) getPreFragment(targetFragment);
         }
+        restoreStack(fragmentManager, targetFragment);
 
         ISupportFragment fromFragment = getTopFragment(fragmentManager);
         Animation popAnimation;
 
         if (afterPopTransactionRunnable == null && popAnim == TransactionDelegate.DEFAULT_POPTO_ANIM) {
-            popAnimation = fromFragment.getSupportDelegate().mAnimHelper.exitAnim;
+            popAnimation = fromFragment.getSupportDelegate().mAnimHelper.obtainExitAnim();
         } else {
             if (popAnim == TransactionDelegate.DEFAULT_POPTO_ANIM) {
                 popAnimation = new Animation() {
@@ -476,7 +1134,7 @@ class TransactionDelegate {
                 popAnimation = new Animation() {
                 };
             } else {
-                popAnimation = AnimationUtils.loadAnimation(mActivity, popAnim);
+                popAnimation = AnimationCache.obtain(mActivity, popAnim);
             }
         }
 
@@ -488,7 +1146,7 @@ class TransactionDelegate {
             public void call() {
                 popToFix(targetFragmentTag, finalFlag, finalFragmentManager);
                 if (afterPopTransactionRunnable != null) {
-                    mHandler.post(new Runnable() {
+                    mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, finalFragmentManager, null, 0) {
                         @Override
                         public void run() {
                             mPopToTempFragmentManager = finalFragmentManager;
@@ -499,6 +1157,7 @@ class TransactionDelegate {
                 }
             }
         });
+        return true;
     }
 
     /**
@@ -506,14 +1165,14 @@ class TransactionDelegate {
      * on pre-support-v4-25.4.0
      */
     private void popToFix(String fragmentTag, int flag, final FragmentManager fragmentManager) {
-        if (FragmentationHack.getActiveFragments(fragmentManager) == null) return;
+        if (FragmentStackIndex.getActiveFragments(fragmentManager) == null) return;
 
         mSupport.getSupportDelegate().mPopMultipleNoAnim = true;
         fragmentManager.popBackStackImmediate(fragmentTag, flag);
         fragmentManager.executePendingTransactions();
         mSupport.getSupportDelegate().mPopMultipleNoAnim = false;
 
-        mHandler.post(new Runnable() {
+        mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, fragmentManager, null, 0) {
             @Override
             public void run() {
                 FragmentationHack.reorderIndices(fragmentManager);
@@ -528,8 +1187,22 @@ class TransactionDelegate {
 
         from.getSupportDelegate().mLockAnim = true;
         View fromView = fromF.getView();
-        container.removeViewInLayout(fromView);
 
+        if (Fragmentation.getDefault().isSnapshotPopAnim()) {
+            final View snapshot = getPopAnimSnapshot().capture(fromView, container);
+            if (snapshot != null) {
+                container.removeViewInLayout(fromView);
+                to.getSupportDelegate().mEnterAnimListener = new SupportFragmentDelegate.EnterAnimListener() {
+                    @Override
+                    public void onEnterAnimStart() {
+                        getPopAnimSnapshot().play(snapshot, exitAnim);
+                    }
+                };
+                return;
+            }
+        }
+
+        container.removeViewInLayout(fromView);
         final ViewGroup mock = addMockView(fromView, container);
 
         to.getSupportDelegate().mEnterAnimListener = new SupportFragmentDelegate.EnterAnimListener() {
@@ -550,7 +1223,7 @@ class TransactionDelegate {
     /**
      * Hack startWithPop/popTo anim
      */
-    private void mockPopAnim(ISupportFragment from, ISupportFragment targetF, Animation exitAnim, boolean afterRunnable, final Callback cb) {
+    private void mockPopAnim(ISupportFragment from, ISupportFragment targetF, final Animation exitAnim, boolean afterRunnable, final Callback cb) {
         if (from == targetF) {
             if (cb != null) {
                 cb.call();
@@ -563,9 +1236,38 @@ class TransactionDelegate {
         if (container == null) return;
 
         View fromView = fromF.getView();
+        from.getSupportDelegate().mLockAnim = true;
+
+        if (Fragmentation.getDefault().isSnapshotPopAnim()) {
+            final View snapshot = getPopAnimSnapshot().capture(fromView, container);
+            if (snapshot != null) {
+                container.removeViewInLayout(fromView);
+                if (cb != null) {
+                    cb.call();
+                }
+                if (afterRunnable) {
+                    // Start together with the enter anim of the fragment started by afterPopTransactionRunnable,
+                    // which is the continuation queued by cb.
+                    final FragmentManager fragmentManager = fromF.getFragmentManager();
+                    mNavigationQueue.runNext(new NavigationQueue.Command(NavigationQueue.Command.FOLLOW_UP, fragmentManager, null, 0) {
+                        @Override
+                        public void run() {
+                            if (fragmentManager != null && !FragmentationHack.isDestroyed(fragmentManager)) {
+                                flushPendingTransactions(fragmentManager);
+                                fragmentManager.executePendingTransactions();
+                            }
+                            getPopAnimSnapshot().play(snapshot, exitAnim);
+                        }
+                    });
+                } else {
+                    getPopAnimSnapshot().play(snapshot, exitAnim);
+                }
+                return;
+            }
+        }
+
         Fragment preF = (Fragment) getPreFragment(fromF);
         ViewGroup preViewGroup = null;
-        from.getSupportDelegate().mLockAnim = true;
 
         // Compatible with flicker on pre-L when calling popTo()
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
@@ -677,6 +1379,30 @@ class TransactionDelegate {
         }
     }
 
+    void onDestroy() {
+        mNavigationQueue.clear();
+        if (mPopAnimSnapshot != null) {
+            mPopAnimSnapshot.release();
+        }
+        if (mTransactionBatcher != null) {
+            mTransactionBatcher.clear();
+        }
+    }
+
+    private TransactionBatcher getTransactionBatcher() {
+        if (mTransactionBatcher == null) {
+            mTransactionBatcher = new TransactionBatcher(mSupport, this);
+        }
+        return mTransactionBatcher;
+    }
+
+    private PopAnimSnapshot getPopAnimSnapshot() {
+        if (mPopAnimSnapshot == null) {
+            mPopAnimSnapshot = new PopAnimSnapshot();
+        }
+        return mPopAnimSnapshot;
+    }
+
     private static <T> T checkNotNull(T value, String message) {
         if (value == null) {
             throw new NullPointerException(message);
@@ -0,0 +1,72 @@
+package me.yokeyword.fragmentation.helper;
+
+/**
+ * 一次导航操作的耗时与丢帧数据
+ * <p>
+ * The times are in milliseconds, -1 if not measured: the frame data needs API 16+ (Choreographer),
+ * and a navigation that doesn't settle within a few seconds is reported without it.
+ */
+public final class NavigationMetrics {
+    public static final int OPERATION_START = 1;
+    public static final int OPERATION_POP = 2;
+    public static final int OPERATION_POP_TO = 3;
+
+    /**
+     * OPERATION_START, OPERATION_POP or OPERATION_POP_TO
+     */
+    public final int operation;
+    public final Class<?> fromClass;
+    /**
+     * For pop()/popTo(), the Fragment on the top after popping.
+     */
+    public final Class<?> toClass;
+    /**
+     * From the call to the start of the execution, while earlier navigations were running.
+     */
+    public final double queueDelayMs;
+    /**
+     * The time the navigation itself took on the main thread.
+     */
+    public final double commitTimeMs;
+    /**
+     * From the end of the execution to the first frame that shows the target.
+     */
+    public final double firstFrameMs;
+    /**
+     * From the first frame to the frame on which all transitions have ended.
+     */
+    public final double animationMs;
+    public final int droppedFrames;
+    /**
+     * From the call to the settled frame.
+     */
+    public final double totalMs;
+
+    public NavigationMetrics(int operation, Class<?> fromClass, Class<?> toClass, double queueDelayMs, double commitTimeMs,
+                             double firstFrameMs, double animationMs, int droppedFrames, double totalMs) {
+        this.operation = operation;
+        this.fromClass = fromClass;
+        this.toClass = toClass;
+        this.queueDelayMs = queueDelayMs;
+        this.commitTimeMs = commitTimeMs;
+        this.firstFrameMs = firstFrameMs;
+        this.animationMs = animationMs;
+        this.droppedFrames = droppedFrames;
+        this.totalMs = totalMs;
+    }
+
+    @Override
+    public String toString() {
+        return "NavigationMetrics{" +
+                "operation=" + operation +
+                ", from=" + (fromClass == null ? null : fromClass.getSimpleName()) +
+                ", to=" + (toClass == null ? null : toClass.getSimpleName()) +
+                ", queueDelayMs=" + queueDelayMs +
+                ", commitTimeMs=" + commitTimeMs +
+                ", firstFrameMs=" + firstFrameMs +
+                ", animationMs=" + animationMs +
+                ", droppedFrames=" + droppedFrames +
+                ", totalMs=" + totalMs +
+                '}';
+    }
+}
@@ -0,0 +1,10 @@
+package me.yokeyword.fragmentation.helper;
+
+/**
+ * 导航性能数据回调, 每次 start()/pop()/popTo() 在动画结束后回调一次
+ * <p>
+ * Called on the main thread, see Fragmentation.FragmentationBuilder#navigationMetricsListener().
+ */
+public interface NavigationMetricsListener {
+    void onNavigation(NavigationMetrics metrics);
+}
@@ -0,0 +1,36 @@
+package me.yokeyword.fragmentation.helper;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * 栈视图调试工具, 由可选的 fragmentation-debug 模块实现, 不依赖该模块时为空实现
+ * <p>
+ * One instance per SupportActivity, created with a (FragmentActivity) constructor.
+ * Rely on fragmentation-debug only in debug builds (debugCompile) so that release builds carry none of it.
+ */
+public interface StackDebugger {
+    String IMPL_CLASS_NAME = "me.yokeyword.fragmentation.debug.DebugStackDelegate";
+
+    void onCreate(int mode);
+
+    void onPostCreate(int mode);
+
+    void onDestroy();
+
+    void showFragmentStackHierarchyView();
+
+    void logFragmentRecords(String tag);
+
+    void exportFragmentRecords(File file, @Nullable ExportCallback callback);
+
+    interface ExportCallback {
+        /**
+         * Called on the main thread.
+         *
+         * @param error null if the export succeeded.
+         */
+        void onExported(File file, @Nullable Exception error);
+    }
+}
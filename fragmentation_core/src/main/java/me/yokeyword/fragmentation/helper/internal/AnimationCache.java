@@ -0,0 +1,56 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.content.Context;
+import android.support.annotation.AnimRes;
+import android.util.SparseArray;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * @Hide
+ * 进程内共享的动画缓存, 每个动画资源只解析一次XML
+ * <p>
+ * The parsed animation is kept as a template which must never be started,
+ * {@link #obtain(Context, int)} hands out a copy of it for every use, because FragmentManager
+ * sets its own AnimationListener on the animation it runs.
+ * Main thread only.
+ */
+public final class AnimationCache {
+    private static final SparseArray<Animation> sTemplates = new SparseArray<>();
+    private static Method sCloneMethod;
+
+    private AnimationCache() {
+    }
+
+    /**
+     * @return the shared template, only read from it, e.g. getDuration().
+     */
+    public static Animation getTemplate(Context context, @AnimRes int animRes) {
+        Animation template = sTemplates.get(animRes);
+        if (template == null) {
+            template = AnimationUtils.loadAnimation(context.getApplicationContext(), animRes);
+            sTemplates.put(animRes, template);
+        }
+        return template;
+    }
+
+    /**
+     * @return a new animation that can be started.
+     */
+    public static Animation obtain(Context context, @AnimRes int animRes) {
+        Animation template = getTemplate(context, animRes);
+        try {
+            if (sCloneMethod == null) {
+                // Animation.clone() is protected, AnimationSet overrides it and copies its children too.
+                Method method = Animation.class.getDeclaredMethod("clone");
+                method.setAccessible(true);
+                sCloneMethod = method;
+            }
+            return (Animation) sCloneMethod.invoke(template);
+        } catch (Exception e) {
+            return AnimationUtils.loadAnimation(context, animRes);
+        }
+    }
+}
@@ -4,47 +4,74 @@ import android.content.Context;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
+
+import java.util.HashMap;
 
 import me.yokeyword.fragmentation.R;
 import me.yokeyword.fragmentation.anim.FragmentAnimator;
 
 /**
  * @Hide Created by YoKeyword on 16/7/26.
+ * <p>
+ * Immutable, fragments with equal FragmentAnimator share one instance, see {@link #obtain(Context, FragmentAnimator)}.
+ * enterAnim/exitAnim/popEnterAnim/popExitAnim are the shared templates of {@link AnimationCache},
+ * only read from them and use obtainXXAnim() to get an animation to run.
  */
 public final class AnimatorHelper {
-    private Animation noneAnim, noneAnimFixed;
-    public Animation enterAnim, exitAnim, popEnterAnim, popExitAnim;
+    private static final HashMap<Key, AnimatorHelper> sHelpers = new HashMap<>();
+
+    public final Animation enterAnim, exitAnim, popEnterAnim, popExitAnim;
 
-    private Context context;
-    private FragmentAnimator fragmentAnimator;
+    private final Context context;
+    private final int enterRes, exitRes, popEnterRes, popExitRes;
 
-    public AnimatorHelper(Context context, FragmentAnimator fragmentAnimator) {
+    private AnimatorHelper(Context context, Key key) {
         this.context = context;
-        notifyChanged(fragmentAnimator);
+        enterRes = animRes(key.enter);
+        exitRes = animRes(key.exit);
+        popEnterRes = animRes(key.popEnter);
+        popExitRes = animRes(key.popExit);
+
+        enterAnim = AnimationCache.getTemplate(context, enterRes);
+        exitAnim = AnimationCache.getTemplate(context, exitRes);
+        popEnterAnim = AnimationCache.getTemplate(context, popEnterRes);
+        popExitAnim = AnimationCache.getTemplate(context, popExitRes);
+    }
+
+    public static AnimatorHelper obtain(Context context, FragmentAnimator fragmentAnimator) {
+        // FragmentAnimator is mutable, so its values are copied into the key.
+        Key key = new Key(fragmentAnimator);
+        AnimatorHelper helper = sHelpers.get(key);
+        if (helper == null) {
+            helper = new AnimatorHelper(context.getApplicationContext(), key);
+            sHelpers.put(key, helper);
+        }
+        return helper;
+    }
+
+    public Animation obtainEnterAnim() {
+        return AnimationCache.obtain(context, enterRes);
+    }
+
+    public Animation obtainExitAnim() {
+        return AnimationCache.obtain(context, exitRes);
     }
 
-    public void notifyChanged(FragmentAnimator fragmentAnimator) {
-        this.fragmentAnimator = fragmentAnimator;
-        initEnterAnim();
-        initExitAnim();
-        initPopEnterAnim();
-        initPopExitAnim();
+    public Animation obtainPopEnterAnim() {
+        return AnimationCache.obtain(context, popEnterRes);
+    }
+
+    public Animation obtainPopExitAnim() {
+        return AnimationCache.obtain(context, popExitRes);
     }
 
     public Animation getNoneAnim() {
-        if (noneAnim == null) {
-            noneAnim = AnimationUtils.loadAnimation(context, R.anim.no_anim);
-        }
-        return noneAnim;
+        return AnimationCache.obtain(context, R.anim.no_anim);
     }
 
     public Animation getNoneAnimFixed() {
-        if (noneAnimFixed == null) {
-            noneAnimFixed = new Animation() {
-            };
-        }
-        return noneAnimFixed;
+        return new Animation() {
+        };
     }
 
     @Nullable
@@ -59,39 +86,35 @@ public final class AnimatorHelper {
         return null;
     }
 
-    private Animation initEnterAnim() {
-        if (fragmentAnimator.getEnter() == 0) {
-            enterAnim = AnimationUtils.loadAnimation(context, R.anim.no_anim);
-        } else {
-            enterAnim = AnimationUtils.loadAnimation(context, fragmentAnimator.getEnter());
-        }
-        return enterAnim;
+    private static int animRes(int res) {
+        return res == 0 ? R.anim.no_anim : res;
     }
 
-    private Animation initExitAnim() {
-        if (fragmentAnimator.getExit() == 0) {
-            exitAnim = AnimationUtils.loadAnimation(context, R.anim.no_anim);
-        } else {
-            exitAnim = AnimationUtils.loadAnimation(context, fragmentAnimator.getExit());
+    private static final class Key {
+        final int enter, exit, popEnter, popExit;
+
+        Key(FragmentAnimator fragmentAnimator) {
+            enter = fragmentAnimator.getEnter();
+            exit = fragmentAnimator.getExit();
+            popEnter = fragmentAnimator.getPopEnter();
+            popExit = fragmentAnimator.getPopExit();
         }
-        return exitAnim;
-    }
 
-    private Animation initPopEnterAnim() {
-        if (fragmentAnimator.getPopEnter() == 0) {
-            popEnterAnim = AnimationUtils.loadAnimation(context, R.anim.no_anim);
-        } else {
-            popEnterAnim = AnimationUtils.loadAnimation(context, fragmentAnimator.getPopEnter());
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return enter == key.enter && exit == key.exit && popEnter == key.popEnter && popExit == key.popExit;
         }
-        return popEnterAnim;
-    }
 
-    private Animation initPopExitAnim() {
-        if (fragmentAnimator.getPopExit() == 0) {
-            popExitAnim = AnimationUtils.loadAnimation(context, R.anim.no_anim);
-        } else {
-            popExitAnim = AnimationUtils.loadAnimation(context, fragmentAnimator.getPopExit());
+        @Override
+        public int hashCode() {
+            int result = enter;
+            result = 31 * result + exit;
+            result = 31 * result + popEnter;
+            result = 31 * result + popExit;
+            return result;
         }
-        return popExitAnim;
     }
 }
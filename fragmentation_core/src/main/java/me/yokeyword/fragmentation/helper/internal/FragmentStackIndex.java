@@ -0,0 +1,456 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentationHack;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * @Hide
+ * 单个FragmentManager的栈索引, 由 {@link Tracker} 通过FragmentLifecycleCallbacks增量维护,
+ * 避免每次查询都反射读取 mActive 并复制一个新的List
+ * <p>
+ * Fragments are kept in attach order (the stack order), top/previous/by-class/by-tag/by-container
+ * lookups are O(1) and don't allocate. FragmentManagers that are not tracked fall back to
+ * {@link FragmentationHack#getActiveFragments(FragmentManager)}.
+ * <p>
+ * Each container has its own linked stack. TransactionDelegate pushes a fragment with its container
+ * when the transaction is committed, so the stacks are already correct before the FragmentManager
+ * executes it; the lifecycle callbacks reconcile the rest.
+ * Main thread only.
+ */
+public final class FragmentStackIndex {
+    private static final WeakHashMap<FragmentManager, FragmentStackIndex> sIndexes = new WeakHashMap<>();
+
+    private final HashMap<Fragment, Node> mNodes = new HashMap<>();
+    private final HashMap<Class<?>, Node> mClassTops = new HashMap<>();
+    private final HashMap<String, Node> mTagTops = new HashMap<>();
+    private final SparseArray<Node> mContainerTops = new SparseArray<>();
+    // The shown root of the containers set up by loadMultipleRootFragment()
+    private final SparseArray<Node> mShownRoots = new SparseArray<>();
+    // Multiple back stacks: the number of roots that keep their views in each container
+    private final SparseIntArray mWarmRootCounts = new SparseIntArray();
+    private long mShownOrder;
+
+    private Node mHead;
+    private Node mTail;
+
+    private List<Fragment> mSnapshot = Collections.emptyList();
+    private boolean mSnapshotDirty;
+
+    private FragmentStackIndex() {
+    }
+
+    /**
+     * @return the index of fragmentManager, or null if it is not tracked.
+     */
+    public static FragmentStackIndex get(FragmentManager fragmentManager) {
+        if (fragmentManager == null) return null;
+        return sIndexes.get(fragmentManager);
+    }
+
+    /**
+     * The active fragments of fragmentManager in stack order.
+     * The returned list is shared and read-only, it's only rebuilt after the stack changed.
+     */
+    public static List<Fragment> getActiveFragments(FragmentManager fragmentManager) {
+        FragmentStackIndex index = get(fragmentManager);
+        if (index != null) {
+            return index.getFragments();
+        }
+        return FragmentationHack.getActiveFragments(fragmentManager);
+    }
+
+    static FragmentStackIndex obtain(FragmentManager fragmentManager) {
+        FragmentStackIndex index = sIndexes.get(fragmentManager);
+        if (index == null) {
+            index = new FragmentStackIndex();
+            // The fragments that were active before we started tracking, e.g. restored ones.
+            List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
+            if (fragmentList != null) {
+                for (int i = 0; i < fragmentList.size(); i++) {
+                    index.add(fragmentList.get(i));
+                }
+            }
+            sIndexes.put(fragmentManager, index);
+        }
+        return index;
+    }
+
+    /**
+     * Called when a transaction adding fragment to containerId is committed.
+     */
+    public static void push(FragmentManager fragmentManager, Fragment fragment, int containerId) {
+        if (fragmentManager == null || fragment == null) return;
+        obtain(fragmentManager).add(fragment, containerId);
+    }
+
+    /**
+     * Called when a transaction removing fragment is committed.
+     */
+    public static void pop(FragmentManager fragmentManager, Fragment fragment) {
+        FragmentStackIndex index = get(fragmentManager);
+        if (index != null) {
+            index.remove(fragment);
+        }
+    }
+
+    /**
+     * Called when a transaction hiding/showing fragment is committed, and from onHiddenChanged().
+     */
+    public static void setHidden(FragmentManager fragmentManager, Fragment fragment, boolean hidden) {
+        FragmentStackIndex index = get(fragmentManager);
+        if (index == null) return;
+        Node node = index.mNodes.get(fragment);
+        if (node != null) {
+            node.hidden = hidden;
+        }
+    }
+
+    /**
+     * Called when fragment, a root loaded by loadMultipleRootFragment(), is shown in its container.
+     */
+    public static void setShownRoot(FragmentManager fragmentManager, Fragment fragment) {
+        FragmentStackIndex index = get(fragmentManager);
+        if (index == null) return;
+        Node node = index.mNodes.get(fragment);
+        if (node != null) {
+            index.mShownRoots.put(node.containerId, node);
+            node.shownOrder = ++index.mShownOrder;
+        }
+    }
+
+    /**
+     * @param warmCount 0 means the roots of the container are never detached.
+     */
+    public static void setWarmRootCount(FragmentManager fragmentManager, int containerId, int warmCount) {
+        if (fragmentManager == null) return;
+        obtain(fragmentManager).mWarmRootCounts.put(containerId, warmCount);
+    }
+
+    static void release(FragmentManager fragmentManager) {
+        if (fragmentManager == null) return;
+        sIndexes.remove(fragmentManager);
+    }
+
+    /**
+     * The nodes hold their fragments, whose mFragmentManager is the key, so the WeakHashMap never
+     * drops an index by itself.
+     */
+    private static void releaseDestroyed() {
+        Iterator<FragmentManager> iterator = sIndexes.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (FragmentationHack.isDestroyed(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public int size() {
+        return mNodes.size();
+    }
+
+    public boolean contains(Fragment fragment) {
+        return mNodes.containsKey(fragment);
+    }
+
+    public List<Fragment> getFragments() {
+        if (mSnapshotDirty) {
+            ArrayList<Fragment> fragments = new ArrayList<>(mNodes.size());
+            for (Node node = mHead; node != null; node = node.next) {
+                fragments.add(node.fragment);
+            }
+            mSnapshot = Collections.unmodifiableList(fragments);
+            mSnapshotDirty = false;
+        }
+        return mSnapshot;
+    }
+
+    public Fragment getTop() {
+        return mTail == null ? null : mTail.fragment;
+    }
+
+    /**
+     * @param containerId the id of the container the fragment was added to.
+     */
+    public Fragment getTop(int containerId) {
+        Node node = mContainerTops.get(containerId);
+        return node == null ? null : node.fragment;
+    }
+
+    /**
+     * @return the top-most fragment of the container which is not hidden.
+     */
+    public Fragment getTopShown(int containerId) {
+        Node node = mContainerTops.get(containerId);
+        while (node != null && node.hidden) {
+            node = node.prevInContainer;
+        }
+        return node == null ? null : node.fragment;
+    }
+
+    /**
+     * @return the root shown in the container, null if the container was not set up by loadMultipleRootFragment()
+     * (or it was restored).
+     */
+    public Fragment getShownRoot(int containerId) {
+        Node node = mShownRoots.get(containerId);
+        return node == null ? null : node.fragment;
+    }
+
+    public int getWarmRootCount(int containerId) {
+        return mWarmRootCounts.get(containerId);
+    }
+
+    /**
+     * @return greater for the roots shown more recently, 0 if fragment was never shown as a root.
+     */
+    public long getShownOrder(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        return node == null ? 0 : node.shownOrder;
+    }
+
+    public int getContainerCount() {
+        return mContainerTops.size();
+    }
+
+    public int getContainerIdAt(int index) {
+        return mContainerTops.keyAt(index);
+    }
+
+    public int getContainerId(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        return node == null ? 0 : node.containerId;
+    }
+
+    /**
+     * @return the SystemClock.elapsedRealtime() when fragment was committed or attached (or when the tracking
+     * started, for the restored ones), -1 if it's not in the index.
+     */
+    public long getAddedTime(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        return node == null ? -1 : node.addedTime;
+    }
+
+    public boolean isHidden(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        return node != null && node.hidden;
+    }
+
+    /**
+     * @return the fragment right below fragment in the stack.
+     */
+    public Fragment getPrevious(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        if (node == null || node.prev == null) return null;
+        return node.prev.fragment;
+    }
+
+    /**
+     * @return the fragment right below fragment in the same container.
+     */
+    public Fragment getPreviousInContainer(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        if (node == null || node.prevInContainer == null) return null;
+        return node.prevInContainer.fragment;
+    }
+
+    /**
+     * @return the top-most fragment whose class is exactly fragmentClass.
+     */
+    public Fragment findByClass(Class<?> fragmentClass) {
+        Node node = mClassTops.get(fragmentClass);
+        return node == null ? null : node.fragment;
+    }
+
+    /**
+     * @return the fragment below fragment with the same class.
+     */
+    public Fragment findPreviousOfClass(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        if (node == null || node.prevOfClass == null) return null;
+        return node.prevOfClass.fragment;
+    }
+
+    /**
+     * @return the top-most fragment with the tag.
+     */
+    public Fragment findByTag(String tag) {
+        if (tag == null) return null;
+        Node node = mTagTops.get(tag);
+        return node == null ? null : node.fragment;
+    }
+
+    void add(Fragment fragment) {
+        if (fragment == null) return;
+        add(fragment, fragment.getId());
+    }
+
+    void add(Fragment fragment, int containerId) {
+        if (fragment == null || mNodes.containsKey(fragment)) return;
+
+        Node node = new Node(fragment, containerId);
+        mNodes.put(fragment, node);
+
+        node.prev = mTail;
+        if (mTail != null) {
+            mTail.next = node;
+        } else {
+            mHead = node;
+        }
+        mTail = node;
+
+        Node classTop = mClassTops.get(node.fragmentClass);
+        node.prevOfClass = classTop;
+        if (classTop != null) classTop.nextOfClass = node;
+        mClassTops.put(node.fragmentClass, node);
+
+        if (node.tag != null) {
+            Node tagTop = mTagTops.get(node.tag);
+            node.prevOfTag = tagTop;
+            if (tagTop != null) tagTop.nextOfTag = node;
+            mTagTops.put(node.tag, node);
+        }
+
+        Node containerTop = mContainerTops.get(node.containerId);
+        node.prevInContainer = containerTop;
+        if (containerTop != null) containerTop.nextInContainer = node;
+        mContainerTops.put(node.containerId, node);
+
+        mSnapshotDirty = true;
+    }
+
+    void remove(Fragment fragment) {
+        Node node = mNodes.remove(fragment);
+        if (node == null) return;
+
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            mHead = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            mTail = node.prev;
+        }
+
+        if (node.prevOfClass != null) node.prevOfClass.nextOfClass = node.nextOfClass;
+        if (node.nextOfClass != null) {
+            node.nextOfClass.prevOfClass = node.prevOfClass;
+        } else if (node.prevOfClass != null) {
+            mClassTops.put(node.fragmentClass, node.prevOfClass);
+        } else {
+            mClassTops.remove(node.fragmentClass);
+        }
+
+        if (node.tag != null) {
+            if (node.prevOfTag != null) node.prevOfTag.nextOfTag = node.nextOfTag;
+            if (node.nextOfTag != null) {
+                node.nextOfTag.prevOfTag = node.prevOfTag;
+            } else if (node.prevOfTag != null) {
+                mTagTops.put(node.tag, node.prevOfTag);
+            } else {
+                mTagTops.remove(node.tag);
+            }
+        }
+
+        if (node.prevInContainer != null) node.prevInContainer.nextInContainer = node.nextInContainer;
+        if (node.nextInContainer != null) {
+            node.nextInContainer.prevInContainer = node.prevInContainer;
+        } else if (node.prevInContainer != null) {
+            mContainerTops.put(node.containerId, node.prevInContainer);
+        } else {
+            mContainerTops.remove(node.containerId);
+        }
+
+        if (mShownRoots.get(node.containerId) == node) {
+            mShownRoots.remove(node.containerId);
+        }
+
+        mSnapshotDirty = true;
+    }
+
+    private static final class Node {
+        final Fragment fragment;
+        final Class<?> fragmentClass;
+        final String tag;
+        final int containerId;
+        final long addedTime;
+        boolean hidden;
+        long shownOrder;
+
+        Node prev, next;
+        Node prevOfClass, nextOfClass;
+        Node prevOfTag, nextOfTag;
+        Node prevInContainer, nextInContainer;
+
+        Node(Fragment fragment, int containerId) {
+            this.fragment = fragment;
+            this.fragmentClass = fragment.getClass();
+            this.tag = fragment.getTag();
+            this.containerId = containerId;
+            this.hidden = fragment.isHidden();
+            this.addedTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Register on the Activity's FragmentManager with recursive = true,
+     * it keeps the indexes of the FragmentManager and all of its child FragmentManagers up to date.
+     * The index of a child FragmentManager is released with its fragment, with the nodes that were
+     * pushed by transactions it never executed.
+     */
+    public static final class Tracker extends FragmentManager.FragmentLifecycleCallbacks {
+        private final FragmentManager mFragmentManager;
+
+        public Tracker(FragmentManager fragmentManager) {
+            this.mFragmentManager = fragmentManager;
+        }
+
+        public void register() {
+            obtain(mFragmentManager);
+            mFragmentManager.registerFragmentLifecycleCallbacks(this, true);
+        }
+
+        public void unregister() {
+            mFragmentManager.unregisterFragmentLifecycleCallbacks(this);
+            release(mFragmentManager);
+        }
+
+        @Override
+        public void onFragmentAttached(FragmentManager fm, Fragment f, Context context) {
+            // fm is the FragmentManager we registered on, the fragment may live in a child one.
+            FragmentManager fragmentManager = f.getFragmentManager();
+            if (fragmentManager == null) return;
+            obtain(fragmentManager).add(f);
+        }
+
+        @Override
+        public void onFragmentDestroyed(FragmentManager fm, Fragment f) {
+            release(FragmentationHack.peekChildFragmentManager(f));
+        }
+
+        @Override
+        public void onFragmentDetached(FragmentManager fm, Fragment f) {
+            FragmentStackIndex index = get(f.getFragmentManager());
+            if (index != null) {
+                index.remove(f);
+            }
+            // A retained fragment isn't destroyed, its child FragmentManager is dropped when it's detached
+            if (f.getRetainInstance()) {
+                releaseDestroyed();
+            }
+        }
+    }
+}
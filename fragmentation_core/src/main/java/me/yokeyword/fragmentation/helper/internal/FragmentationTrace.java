@@ -0,0 +1,68 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.content.Context;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * @Hide
+ * 关键路径的Trace区间: 在systrace/Perfetto中显示为 "Fragmentation#xxx", 录制时同时写入Chrome trace JSON文件
+ * <p>
+ * beginSection()/endSection() must be paired on the same thread, use try/finally.
+ * Only the main thread is recorded to the file.
+ */
+public final class FragmentationTrace {
+    private static final String TRACE_DIR = "fragmentation_trace";
+
+    private static TraceRecorder sRecorder;
+
+    private FragmentationTrace() {
+    }
+
+    public static void beginSection(String sectionName) {
+        TraceCompat.beginSection(sectionName);
+        TraceRecorder recorder = sRecorder;
+        if (recorder != null && Looper.myLooper() == Looper.getMainLooper()) {
+            recorder.begin(sectionName);
+        }
+    }
+
+    public static void endSection() {
+        TraceCompat.endSection();
+        TraceRecorder recorder = sRecorder;
+        if (recorder != null && Looper.myLooper() == Looper.getMainLooper()) {
+            recorder.end();
+        }
+    }
+
+    /**
+     * Start writing the sections to a new file in the app's files dir, a running recording is stopped first.
+     * The file is created on a background thread, a failure is logged.
+     *
+     * @return the trace file.
+     */
+    public static File startRecording(Context context) {
+        stopRecording();
+
+        File dir = new File(context.getFilesDir(), TRACE_DIR);
+        String name = "trace-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".json";
+        File file = new File(dir, name);
+        sRecorder = new TraceRecorder(file, context.getPackageName());
+        return file;
+    }
+
+    public static void stopRecording() {
+        if (sRecorder == null) return;
+        sRecorder.close();
+        sRecorder = null;
+    }
+
+    public static boolean isRecording() {
+        return sRecorder != null;
+    }
+}
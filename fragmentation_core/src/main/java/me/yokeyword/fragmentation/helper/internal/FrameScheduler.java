@@ -0,0 +1,97 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * @Hide
+ * 在下一帧执行任务: API 16+ 使用 Choreographer, 之前的版本退化为 Handler.post()
+ * <p>
+ * Runs a task once on the next frame, schedule() is idempotent until the task runs.
+ */
+public final class FrameScheduler {
+    private final Runnable mTask;
+    private Handler mHandler;
+    private Object mFrameCallback;
+    private boolean mScheduled;
+
+    private final Runnable mDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    public FrameScheduler(Runnable task) {
+        this.mTask = task;
+    }
+
+    public void schedule() {
+        if (mScheduled) return;
+        mScheduled = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback == null) {
+                mFrameCallback = new FrameCallbackImpl(mDispatcher);
+            }
+            ((FrameCallbackImpl) mFrameCallback).post();
+        } else {
+            getHandler().post(mDispatcher);
+        }
+    }
+
+    public void cancel() {
+        if (!mScheduled) return;
+        mScheduled = false;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback != null) {
+                ((FrameCallbackImpl) mFrameCallback).remove();
+            }
+        } else {
+            getHandler().removeCallbacks(mDispatcher);
+        }
+    }
+
+    public boolean isScheduled() {
+        return mScheduled;
+    }
+
+    private void dispatch() {
+        if (!mScheduled) return;
+        mScheduled = false;
+        mTask.run();
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        return mHandler;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameCallbackImpl implements Choreographer.FrameCallback {
+        private final Runnable mRunnable;
+
+        FrameCallbackImpl(Runnable runnable) {
+            this.mRunnable = runnable;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mRunnable.run();
+        }
+    }
+}
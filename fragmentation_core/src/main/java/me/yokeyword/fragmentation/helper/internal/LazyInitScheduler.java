@@ -0,0 +1,110 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import java.util.ArrayList;
+
+/**
+ * @Hide
+ * 按帧预算执行懒加载: 可见的Fragment优先, 然后是ViewPager中相邻的页面, 最后是隐藏的Tab
+ * <p>
+ * Every step (onLazyInitView() or one ILazyInitPhases phase) runs on a frame callback. Steps keep running
+ * until the frame budget is used up, at least one step runs per frame. A pending fragment that becomes
+ * visible is moved to the front. Disabled when the budget is 0.
+ * Main thread only.
+ */
+public final class LazyInitScheduler {
+    static final int PRIORITY_NONE = -1;
+    static final int PRIORITY_VISIBLE = 0;
+    static final int PRIORITY_NEIGHBOUR = 1;
+    static final int PRIORITY_HIDDEN = 2;
+
+    private static long sFrameBudgetNanos;
+    private static LazyInitScheduler sInstance;
+
+    private final ArrayList<VisibleDelegate> mVisible = new ArrayList<>();
+    private final ArrayList<VisibleDelegate> mNeighbours = new ArrayList<>();
+    private final ArrayList<VisibleDelegate> mHidden = new ArrayList<>();
+    private final FrameScheduler mScheduler;
+
+    private LazyInitScheduler() {
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                runSteps();
+            }
+        });
+    }
+
+    /**
+     * @param millis the time the lazy init may take per frame, 0 to run it synchronously.
+     */
+    public static void setFrameBudget(long millis) {
+        sFrameBudgetNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    static boolean isEnabled() {
+        return sFrameBudgetNanos > 0;
+    }
+
+    static LazyInitScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new LazyInitScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Enqueue delegate, or move it forward if it's already pending with a lower priority.
+     */
+    void enqueue(VisibleDelegate delegate, int priority) {
+        if (delegate.mLazyInitPriority != PRIORITY_NONE) {
+            if (priority >= delegate.mLazyInitPriority) return;
+            getQueue(delegate.mLazyInitPriority).remove(delegate);
+        }
+        delegate.mLazyInitPriority = priority;
+        getQueue(priority).add(delegate);
+        mScheduler.schedule();
+    }
+
+    void cancel(VisibleDelegate delegate) {
+        if (delegate.mLazyInitPriority == PRIORITY_NONE) return;
+        getQueue(delegate.mLazyInitPriority).remove(delegate);
+        delegate.mLazyInitPriority = PRIORITY_NONE;
+    }
+
+    private void runSteps() {
+        long deadline = System.nanoTime() + sFrameBudgetNanos;
+        boolean firstStep = true;
+        VisibleDelegate delegate;
+        while ((delegate = peek()) != null) {
+            if (!firstStep && System.nanoTime() >= deadline) {
+                mScheduler.schedule();
+                return;
+            }
+            firstStep = false;
+
+            boolean hasMore = delegate.runLazyInitStep();
+            // The step may have cancelled or re-enqueued delegate
+            if (!hasMore && delegate.mLazyInitPriority != PRIORITY_NONE) {
+                cancel(delegate);
+            }
+        }
+    }
+
+    private VisibleDelegate peek() {
+        if (!mVisible.isEmpty()) return mVisible.get(0);
+        if (!mNeighbours.isEmpty()) return mNeighbours.get(0);
+        if (!mHidden.isEmpty()) return mHidden.get(0);
+        return null;
+    }
+
+    private ArrayList<VisibleDelegate> getQueue(int priority) {
+        switch (priority) {
+            case PRIORITY_VISIBLE:
+                return mVisible;
+            case PRIORITY_NEIGHBOUR:
+                return mNeighbours;
+            default:
+                return mHidden;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * @Hide
+ * 进程内的参数/结果对象仓库, Bundle里只保存一个 {@link PayloadToken}, 对象本身按引用在Fragment之间传递
+ * <p>
+ * The objects are only parceled when the owner Fragment's state is saved, see {@link #save(Bundle, Bundle...)}.
+ * After the process is killed they are restored from that state by {@link #restore(Bundle)},
+ * objects that are neither Parcelable nor Serializable, or beyond {@link #MAX_SAVED_BYTES}, are lost then.
+ * Main thread only.
+ */
+public final class PayloadStore {
+    private static final String TAG = "Fragmentation";
+    /**
+     * The parceled objects of one saved state, the larger ones are dropped to keep the state small.
+     */
+    public static final int MAX_SAVED_BYTES = 50 * 1024;
+
+    private static final HashMap<String, Object> sPayloads = new HashMap<>();
+    // Parceled size by id, measured once
+    private static final HashMap<String, Integer> sSizes = new HashMap<>();
+
+    private PayloadStore() {
+    }
+
+    public static void put(Bundle bundle, String key, Object value) {
+        release(bundle, key);
+        if (value == null) {
+            bundle.remove(key);
+            return;
+        }
+        // Unique across processes, the token may be restored from a saved state.
+        PayloadToken token = new PayloadToken(UUID.randomUUID().toString());
+        sPayloads.put(token.id, value);
+        bundle.putParcelable(key, token);
+    }
+
+    public static Object get(Bundle bundle, String key) {
+        if (bundle == null) return null;
+        Object token = bundle.get(key);
+        if (!(token instanceof PayloadToken)) return null;
+        return sPayloads.get(((PayloadToken) token).id);
+    }
+
+    /**
+     * Release all the objects referenced by bundle.
+     */
+    public static void release(Bundle bundle) {
+        if (bundle == null || sPayloads.isEmpty()) return;
+        for (String key : bundle.keySet()) {
+            Object token = bundle.get(key);
+            if (token instanceof PayloadToken) {
+                remove(((PayloadToken) token).id);
+            }
+        }
+    }
+
+    /**
+     * Parcel fallback: put the objects referenced by bundles into outState, at most {@link #MAX_SAVED_BYTES} in all.
+     */
+    public static void save(Bundle outState, Bundle... bundles) {
+        if (sPayloads.isEmpty()) return;
+        int savedBytes = 0;
+        for (Bundle bundle : bundles) {
+            if (bundle == null) continue;
+            for (String key : bundle.keySet()) {
+                Object token = bundle.get(key);
+                if (!(token instanceof PayloadToken)) continue;
+
+                String id = ((PayloadToken) token).id;
+                Object value = sPayloads.get(id);
+                if (value == null) continue;
+                int size = sizeOf(id, value);
+                if (size < 0) continue;
+                if (savedBytes + size > MAX_SAVED_BYTES) {
+                    Log.w(TAG, "The object of " + key + " (" + size + " bytes) isn't saved, it's lost if the process is killed.");
+                    continue;
+                }
+                savedBytes += size;
+                put(outState, id, value);
+            }
+        }
+    }
+
+    private static void put(Bundle outState, String id, Object value) {
+        if (value instanceof Parcelable) {
+            outState.putParcelable(id, (Parcelable) value);
+        } else if (value instanceof ArrayList && isParcelableList((ArrayList<?>) value)) {
+            outState.putParcelableArrayList(id, castParcelableList((ArrayList<?>) value));
+        } else if (value instanceof Serializable) {
+            outState.putSerializable(id, (Serializable) value);
+        }
+    }
+
+    /**
+     * @return -1 if value can't be parceled.
+     */
+    private static int sizeOf(String id, Object value) {
+        Integer size = sSizes.get(id);
+        if (size != null) return size;
+
+        if (!(value instanceof Parcelable || value instanceof Serializable
+                || (value instanceof ArrayList && isParcelableList((ArrayList<?>) value)))) {
+            size = -1;
+        } else {
+            Parcel parcel = Parcel.obtain();
+            try {
+                parcel.writeValue(value);
+                size = parcel.dataSize();
+            } catch (RuntimeException e) {
+                size = -1;
+            } finally {
+                parcel.recycle();
+            }
+        }
+        sSizes.put(id, size);
+        return size;
+    }
+
+    /**
+     * Put back the objects saved by {@link #save(Bundle, Bundle...)}, the ones still in memory are kept.
+     */
+    public static void restore(Bundle savedState) {
+        if (savedState == null) return;
+        savedState.setClassLoader(PayloadStore.class.getClassLoader());
+        for (String id : savedState.keySet()) {
+            if (!sPayloads.containsKey(id)) {
+                sPayloads.put(id, savedState.get(id));
+            }
+        }
+    }
+
+    private static void release(Bundle bundle, String key) {
+        Object token = bundle.get(key);
+        if (token instanceof PayloadToken) {
+            remove(((PayloadToken) token).id);
+        }
+    }
+
+    private static void remove(String id) {
+        sPayloads.remove(id);
+        sSizes.remove(id);
+    }
+
+    private static boolean isParcelableList(ArrayList<?> list) {
+        for (int i = 0; i < list.size(); i++) {
+            if (!(list.get(i) instanceof Parcelable)) return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<Parcelable> castParcelableList(ArrayList<?> list) {
+        return (ArrayList<Parcelable>) list;
+    }
+}
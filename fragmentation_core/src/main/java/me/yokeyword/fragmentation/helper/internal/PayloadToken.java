@@ -0,0 +1,42 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * @Hide
+ * 放入Bundle的令牌, 对应 {@link PayloadStore} 中按引用保存的对象
+ */
+public final class PayloadToken implements Parcelable {
+    final String id;
+
+    PayloadToken(String id) {
+        this.id = id;
+    }
+
+    protected PayloadToken(Parcel in) {
+        id = in.readString();
+    }
+
+    public static final Creator<PayloadToken> CREATOR = new Creator<PayloadToken>() {
+        @Override
+        public PayloadToken createFromParcel(Parcel in) {
+            return new PayloadToken(in);
+        }
+
+        @Override
+        public PayloadToken[] newArray(int size) {
+            return new PayloadToken[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(id);
+    }
+}
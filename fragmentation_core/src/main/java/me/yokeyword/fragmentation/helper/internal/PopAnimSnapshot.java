@@ -0,0 +1,123 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.Animation;
+
+/**
+ * @Hide
+ * popTo()/startWithPop() 的出栈动画: 把出栈Fragment的View绘制成快照, 在容器内对快照播放动画
+ * <p>
+ * The outgoing view is never moved to another parent. The snapshot view is added with addViewInLayout(),
+ * so the container isn't laid out again, and it's removed as soon as its animation ends.
+ * One bitmap is cached and reused by the next snapshot of the same size.
+ * Main thread only.
+ */
+public final class PopAnimSnapshot {
+    private Bitmap mCachedBitmap;
+
+    /**
+     * Draw fromView into a snapshot and add it on top of container.
+     *
+     * @return the snapshot, or null if fromView can't be captured.
+     */
+    public View capture(View fromView, ViewGroup container) {
+        int width = fromView.getWidth();
+        int height = fromView.getHeight();
+        if (width <= 0 || height <= 0) return null;
+
+        Bitmap bitmap = obtainBitmap(width, height);
+        if (bitmap == null) return null;
+        fromView.draw(new Canvas(bitmap));
+
+        SnapshotView snapshot = new SnapshotView(container.getContext(), bitmap);
+        container.addViewInLayout(snapshot, -1, new ViewGroup.LayoutParams(width, height), true);
+        snapshot.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        snapshot.layout(fromView.getLeft(), fromView.getTop(), fromView.getLeft() + width, fromView.getTop() + height);
+        snapshot.invalidate();
+        return snapshot;
+    }
+
+    /**
+     * Run exitAnim on the snapshot, the snapshot is removed when it ends.
+     */
+    public void play(final View snapshot, Animation exitAnim) {
+        exitAnim.setAnimationListener(new Animation.AnimationListener() {
+            @Override
+            public void onAnimationStart(Animation animation) {
+            }
+
+            @Override
+            public void onAnimationEnd(Animation animation) {
+                snapshot.setVisibility(View.INVISIBLE);
+                // Called while the container is drawing
+                snapshot.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        remove(snapshot);
+                    }
+                });
+            }
+
+            @Override
+            public void onAnimationRepeat(Animation animation) {
+            }
+        });
+        snapshot.startAnimation(exitAnim);
+    }
+
+    public void remove(View snapshot) {
+        if (!(snapshot instanceof SnapshotView)) return;
+
+        if (snapshot.getParent() instanceof ViewGroup) {
+            ((ViewGroup) snapshot.getParent()).removeViewInLayout(snapshot);
+        }
+
+        SnapshotView snapshotView = (SnapshotView) snapshot;
+        Bitmap bitmap = snapshotView.mBitmap;
+        snapshotView.mBitmap = null;
+        if (bitmap != null && mCachedBitmap == null) {
+            mCachedBitmap = bitmap;
+        }
+    }
+
+    public void release() {
+        mCachedBitmap = null;
+    }
+
+    private Bitmap obtainBitmap(int width, int height) {
+        Bitmap bitmap = mCachedBitmap;
+        mCachedBitmap = null;
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+
+        try {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+
+    private static final class SnapshotView extends View {
+        Bitmap mBitmap;
+
+        SnapshotView(Context context, Bitmap bitmap) {
+            super(context);
+            mBitmap = bitmap;
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (mBitmap != null) {
+                canvas.drawBitmap(mBitmap, 0, 0, null);
+            }
+        }
+    }
+}
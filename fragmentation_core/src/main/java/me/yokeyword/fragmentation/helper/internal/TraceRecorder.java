@@ -0,0 +1,179 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+
+/**
+ * Chrome trace (JSON Array Format) 的流式写入, 每个区间结束时写出一个完整事件
+ * <p>
+ * The timestamps are System.nanoTime() based, the same clock as systrace. The closing bracket is optional
+ * in this format, so a file cut off by a crash can still be loaded by chrome://tracing or Perfetto.
+ * begin()/end() are called on the main thread and only queue the events, the file is opened and written
+ * on a background thread, so no disk I/O lands inside the recorded sections.
+ */
+final class TraceRecorder {
+    private static final String TAG = "Fragmentation";
+    private static final String CATEGORY = "fragmentation";
+
+    private final int mPid;
+    // The main thread, the only one that is recorded
+    private int mTid;
+    private final ArrayList<String> mNames = new ArrayList<>();
+    private long[] mStartTimes = new long[16];
+
+    private final HandlerThread mWriteThread;
+    private final Handler mWriteHandler;
+    private final Object mLock = new Object();
+    private ArrayList<Event> mPendingEvents = new ArrayList<>();
+    private boolean mWriteScheduled;
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingEvents();
+        }
+    };
+
+    // Write thread only
+    private JsonWriter mWriter;
+    private boolean mFailed;
+
+    TraceRecorder(final File file, final String processName) {
+        mPid = Process.myPid();
+        mWriteThread = new HandlerThread("FragmentationTrace", Process.THREAD_PRIORITY_BACKGROUND);
+        mWriteThread.start();
+        mWriteHandler = new Handler(mWriteThread.getLooper());
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                open(file, processName);
+            }
+        });
+    }
+
+    void begin(String name) {
+        int depth = mNames.size();
+        if (depth == mStartTimes.length) {
+            long[] startTimes = new long[depth * 2];
+            System.arraycopy(mStartTimes, 0, startTimes, 0, depth);
+            mStartTimes = startTimes;
+        }
+        mNames.add(name);
+        mStartTimes[depth] = System.nanoTime();
+    }
+
+    void end() {
+        // Sections begun before the recording started
+        if (mNames.isEmpty()) return;
+        long now = System.nanoTime();
+        int depth = mNames.size() - 1;
+        String name = mNames.remove(depth);
+        long start = mStartTimes[depth];
+        if (mTid == 0) {
+            mTid = Process.myTid();
+        }
+
+        synchronized (mLock) {
+            mPendingEvents.add(new Event(name, start, now - start, mTid));
+            if (mWriteScheduled) return;
+            mWriteScheduled = true;
+        }
+        mWriteHandler.post(mWriteRunnable);
+    }
+
+    /**
+     * The queued events are written, then the file is closed on the write thread.
+     */
+    void close() {
+        mWriteHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                writePendingEvents();
+                try {
+                    if (mWriter != null) {
+                        if (!mFailed) {
+                            mWriter.endArray();
+                        }
+                        mWriter.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to close the trace", e);
+                }
+                mWriteThread.quit();
+            }
+        });
+    }
+
+    private void open(File file, String processName) {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            mFailed = true;
+            Log.e(TAG, "Can't create the trace dir: " + dir);
+            return;
+        }
+        try {
+            mWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+            mWriter.beginArray();
+            mWriter.beginObject()
+                    .name("name").value("process_name")
+                    .name("ph").value("M")
+                    .name("pid").value(mPid)
+                    .name("args").beginObject().name("name").value(processName).endObject()
+                    .endObject();
+        } catch (IOException e) {
+            mFailed = true;
+            Log.e(TAG, "Can't write the trace file: " + file, e);
+        }
+    }
+
+    private void writePendingEvents() {
+        ArrayList<Event> events;
+        synchronized (mLock) {
+            events = mPendingEvents;
+            mPendingEvents = new ArrayList<>();
+            mWriteScheduled = false;
+        }
+        if (mFailed || mWriter == null) return;
+
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                Event event = events.get(i);
+                mWriter.beginObject()
+                        .name("name").value(event.name)
+                        .name("cat").value(CATEGORY)
+                        .name("ph").value("X")
+                        .name("ts").value(event.start / 1000)
+                        .name("dur").value(event.duration / 1000)
+                        .name("pid").value(mPid)
+                        .name("tid").value(event.tid)
+                        .endObject();
+            }
+        } catch (IOException e) {
+            mFailed = true;
+            Log.e(TAG, "Failed to write the trace", e);
+        }
+    }
+
+    private static final class Event {
+        final String name;
+        final long start;
+        final long duration;
+        final int tid;
+
+        Event(String name, long start, long duration, int tid) {
+            this.name = name;
+            this.start = start;
+            this.duration = duration;
+            this.tid = tid;
+        }
+    }
+}
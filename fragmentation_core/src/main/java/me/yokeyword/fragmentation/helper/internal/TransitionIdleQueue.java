@@ -0,0 +1,303 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.view.animation.Animation;
+
+import java.util.ArrayList;
+
+/**
+ * @Hide
+ * Activity级别的任务队列: 等相关容器的转场动画结束后, 在下一帧按优先级执行
+ * <p>
+ * A transition ends on its real animation end, the duration (plus a buffer) is only a watchdog for the
+ * animations that never run, e.g. the view is not drawn. The end is read from the animation on every frame:
+ * FragmentManager keeps the AnimationListener of an enter animation (wrapped), but replaces the one of an exit
+ * animation with its own.
+ * Transitions and actions are scoped by the container of their Fragment: an action waits for the transitions
+ * in the container of its Fragment and in the containers of its parent Fragments, the ones elsewhere don't delay it.
+ * Once they end, it runs on the next frame, higher priority first, in order within the same priority.
+ * Actions are owned by a Fragment and cancelled with {@link #cancel(Object)}.
+ * Main thread only.
+ */
+public final class TransitionIdleQueue {
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+
+    private static final long BUFFER_TIME = 50L;
+
+    private final ArrayList<Transition> mTransitions = new ArrayList<>();
+    private final ArrayList<Action> mActions = new ArrayList<>();
+    private final FrameScheduler mScheduler;
+    private final FrameScheduler mPollScheduler;
+    private Handler mHandler;
+
+    public TransitionIdleQueue() {
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                runActions();
+            }
+        });
+        mPollScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                pollAnimations();
+            }
+        });
+    }
+
+    /**
+     * The transition of fragment ends when anim ends, then onEnd is called.
+     */
+    public void trackAnimation(Object owner, Fragment fragment, final Animation anim, Runnable onEnd) {
+        beginTransitionInternal(owner, fragment, anim, anim.getDuration(), onEnd).animation = anim;
+        mPollScheduler.schedule();
+        // Only kept for the enter animations, the exit ones are polled by pollAnimations()
+        anim.setAnimationListener(new Animation.AnimationListener() {
+            @Override
+            public void onAnimationStart(Animation animation) {
+            }
+
+            @Override
+            public void onAnimationEnd(Animation animation) {
+                endTransition(anim);
+            }
+
+            @Override
+            public void onAnimationRepeat(Animation animation) {
+            }
+        });
+    }
+
+    /**
+     * @param fragment the Fragment that animates, its container is the scope of the transition
+     * @param token    to end the transition by {@link #endTransition(Object)}
+     * @param duration the transition ends after it anyway
+     */
+    public void beginTransition(Object owner, Fragment fragment, Object token, long duration, Runnable onEnd) {
+        beginTransitionInternal(owner, fragment, token, duration, onEnd);
+    }
+
+    private Transition beginTransitionInternal(Object owner, Fragment fragment, Object token, long duration, Runnable onEnd) {
+        endTransition(token);
+
+        final Transition transition = new Transition(owner, Scope.of(fragment), token, onEnd);
+        transition.watchdog = new Runnable() {
+            @Override
+            public void run() {
+                endTransition(transition.token);
+            }
+        };
+        mTransitions.add(transition);
+        getHandler().postDelayed(transition.watchdog, duration + BUFFER_TIME);
+        return transition;
+    }
+
+    public void endTransition(Object token) {
+        for (int i = 0; i < mTransitions.size(); i++) {
+            Transition transition = mTransitions.get(i);
+            if (transition.token == token) {
+                mTransitions.remove(i);
+                finish(transition);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param fragment runnable waits for the transitions in its container and in the ones of its parents
+     */
+    public void post(Object owner, Fragment fragment, int priority, Runnable runnable) {
+        int index = mActions.size();
+        // Keep the order within the same priority
+        while (index > 0 && mActions.get(index - 1).priority > priority) {
+            index--;
+        }
+        mActions.add(index, new Action(owner, Scope.chainOf(fragment), priority, runnable));
+        scheduleIfIdle();
+    }
+
+    /**
+     * Remove the pending actions and the running transitions of owner, their onEnd is not called.
+     */
+    public void cancel(Object owner) {
+        for (int i = mActions.size() - 1; i >= 0; i--) {
+            if (mActions.get(i).owner == owner) {
+                mActions.remove(i);
+            }
+        }
+        for (int i = mTransitions.size() - 1; i >= 0; i--) {
+            Transition transition = mTransitions.get(i);
+            if (transition.owner == owner) {
+                mTransitions.remove(i);
+                getHandler().removeCallbacks(transition.watchdog);
+            }
+        }
+        scheduleIfIdle();
+    }
+
+    /**
+     * @return true if no transition is running in any container.
+     */
+    public boolean isIdle() {
+        return mTransitions.isEmpty();
+    }
+
+    private boolean isIdle(Action action) {
+        for (int i = 0; i < mTransitions.size(); i++) {
+            Scope scope = mTransitions.get(i).scope;
+            // Without a scope, it waits for or blocks everything
+            if (scope == null || action.scopes == null || action.scopes.contains(scope)) return false;
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mTransitions.size(); i++) {
+            getHandler().removeCallbacks(mTransitions.get(i).watchdog);
+        }
+        mTransitions.clear();
+        mActions.clear();
+        mScheduler.cancel();
+        mPollScheduler.cancel();
+    }
+
+    /**
+     * Ends the transitions whose animation has ended, then polls again on the next frame while any is left.
+     */
+    private void pollAnimations() {
+        boolean polling = false;
+        for (int i = mTransitions.size() - 1; i >= 0; i--) {
+            // endTransition() may run onEnd, which may end or begin other transitions
+            if (i >= mTransitions.size()) continue;
+            Transition transition = mTransitions.get(i);
+            if (transition.animation == null) continue;
+            if (transition.animation.hasEnded()) {
+                endTransition(transition.token);
+            } else {
+                polling = true;
+            }
+        }
+        if (polling) {
+            mPollScheduler.schedule();
+        }
+    }
+
+    private void finish(Transition transition) {
+        getHandler().removeCallbacks(transition.watchdog);
+        if (transition.onEnd != null) {
+            transition.onEnd.run();
+        }
+        scheduleIfIdle();
+    }
+
+    private void scheduleIfIdle() {
+        for (int i = 0; i < mActions.size(); i++) {
+            if (isIdle(mActions.get(i))) {
+                mScheduler.schedule();
+                return;
+            }
+        }
+    }
+
+    private void runActions() {
+        // Actions posted while running wait for the next frame, a started transition holds the actions of its scope
+        Action[] actions = mActions.toArray(new Action[mActions.size()]);
+        for (Action action : actions) {
+            // Cancelled by a previous action
+            if (!mActions.contains(action) || !isIdle(action)) continue;
+            mActions.remove(action);
+            action.runnable.run();
+        }
+        scheduleIfIdle();
+    }
+
+    private Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        return mHandler;
+    }
+
+    /**
+     * A container: the FragmentManager and the container id of a Fragment.
+     */
+    private static final class Scope {
+        final FragmentManager fragmentManager;
+        final int containerId;
+
+        private Scope(FragmentManager fragmentManager, int containerId) {
+            this.fragmentManager = fragmentManager;
+            this.containerId = containerId;
+        }
+
+        static Scope of(Fragment fragment) {
+            if (fragment == null || fragment.getFragmentManager() == null) return null;
+            return new Scope(fragment.getFragmentManager(), fragment.getId());
+        }
+
+        /**
+         * @return the containers of fragment and of its parents, null if fragment isn't added.
+         */
+        static ArrayList<Scope> chainOf(Fragment fragment) {
+            ArrayList<Scope> chain = null;
+            for (Fragment f = fragment; f != null; f = f.getParentFragment()) {
+                Scope scope = of(f);
+                if (scope == null) return null;
+                if (chain == null) {
+                    chain = new ArrayList<>();
+                }
+                chain.add(scope);
+            }
+            return chain;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Scope)) return false;
+            Scope scope = (Scope) o;
+            return containerId == scope.containerId && fragmentManager == scope.fragmentManager;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(fragmentManager) + containerId;
+        }
+    }
+
+    private static final class Transition {
+        final Object owner;
+        final Scope scope;
+        final Object token;
+        final Runnable onEnd;
+        Runnable watchdog;
+        // Polled for its end, null if the transition is ended by endTransition() only
+        Animation animation;
+
+        Transition(Object owner, Scope scope, Object token, Runnable onEnd) {
+            this.owner = owner;
+            this.scope = scope;
+            this.token = token;
+            this.onEnd = onEnd;
+        }
+    }
+
+    private static final class Action {
+        final Object owner;
+        // null: waits for all the transitions
+        final ArrayList<Scope> scopes;
+        final int priority;
+        final Runnable runnable;
+
+        Action(Object owner, ArrayList<Scope> scopes, int priority, Runnable runnable) {
+            this.owner = owner;
+            this.scopes = scopes;
+            this.priority = priority;
+            this.runnable = runnable;
+        }
+    }
+}
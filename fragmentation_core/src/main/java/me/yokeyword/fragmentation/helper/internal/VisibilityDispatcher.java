@@ -0,0 +1,60 @@
+package me.yokeyword.fragmentation.helper.internal;
+
+import java.util.ArrayList;
+
+/**
+ * @Hide
+ * 合并同一帧内的可见性分发, 下一帧统一计算最终状态并分发一次
+ * <p>
+ * VisibleDelegates whose visibility changed, in either direction, are recorded instead of posting one Runnable each.
+ * On the next frame every pending delegate compares its final state with the dispatched one and dispatches
+ * at most one change: one hidden and shown again in the meantime dispatches nothing, so
+ * onSupportVisible()/onSupportInvisible() don't flap. A parent dispatches to its children, the children that
+ * are pending too are already in their final state then and are not dispatched twice.
+ * onResume()/onPause() are still dispatched right away.
+ * Main thread only.
+ */
+final class VisibilityDispatcher {
+    private static VisibilityDispatcher sInstance;
+
+    private ArrayList<VisibleDelegate> mPending = new ArrayList<>();
+    private ArrayList<VisibleDelegate> mDispatching = new ArrayList<>();
+    private final FrameScheduler mScheduler;
+
+    private VisibilityDispatcher() {
+        mScheduler = new FrameScheduler(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        });
+    }
+
+    static VisibilityDispatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new VisibilityDispatcher();
+        }
+        return sInstance;
+    }
+
+    void enqueue(VisibleDelegate delegate) {
+        if (delegate.mDispatchPending) return;
+        delegate.mDispatchPending = true;
+        mPending.add(delegate);
+        mScheduler.schedule();
+    }
+
+    private void dispatch() {
+        // Swap the lists, delegates enqueued while dispatching go to the next frame.
+        ArrayList<VisibleDelegate> dispatching = mPending;
+        mPending = mDispatching;
+        mDispatching = dispatching;
+
+        for (int i = 0; i < dispatching.size(); i++) {
+            VisibleDelegate delegate = dispatching.get(i);
+            delegate.mDispatchPending = false;
+            delegate.dispatchPendingVisibility();
+        }
+        dispatching.clear();
+    }
+}
@@ -1,15 +1,13 @@
 package me.yokeyword.fragmentation.helper.internal;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentationHack;
 
 import java.util.List;
 
+import me.yokeyword.fragmentation.ILazyInitPhases;
 import me.yokeyword.fragmentation.ISupportFragment;
 
 /**
@@ -67,7 +65,11 @@ public class VisibleDelegate {
     /**是否第一次创建View 组件并Replace到窗口，此属性是可以销毁后重建的时候回读取的*/
     private boolean mFirstCreateViewCompatReplace = true;
 
-    private Handler mHandler;
+    /**已交给VisibilityDispatcher, 等待下一帧分发*/
+    boolean mDispatchPending;
+    /**LazyInitScheduler中的优先级, 以及下一步要执行的懒加载阶段*/
+    int mLazyInitPriority = LazyInitScheduler.PRIORITY_NONE;
+    private int mLazyInitStep;
     private Bundle mSaveInstanceState;
 
     private ISupportFragment mSupportF;
@@ -110,8 +112,16 @@ public class VisibleDelegate {
                 //前面判断如果有父Fragment。则就判断父Fragment正在显示吗，未显示不走进来，无父Fragment也不进来
                 mNeedDispatch = false;      //需要分发改为false
                 safeDispatchUserVisibleHint(true);  //安全的设置显示状态为true
+                return;
             }
         }
+
+        if (mIsFirstVisible && LazyInitScheduler.isEnabled()) {
+            // Not visible yet, lazy init it in the spare frame budget: ViewPager neighbours first, then hidden tabs
+            boolean neighbour = !mFragment.isHidden() && !mFragment.getUserVisibleHint();
+            LazyInitScheduler.getInstance().enqueue(this,
+                    neighbour ? LazyInitScheduler.PRIORITY_NEIGHBOUR : LazyInitScheduler.PRIORITY_HIDDEN);
+        }
     }
 
     public void onResume() {               //显示
@@ -139,25 +149,40 @@ public class VisibleDelegate {
             mInvisibleWhenLeave = false;
             return;
         }
-        if (hidden) {
-            safeDispatchUserVisibleHint(false);
-        } else {
-            enqueueDispatchVisible();
+        // Both directions are reconciled on the next frame, hidden and shown again in between dispatches nothing
+        enqueueDispatch();
+    }
+
+    /**
+     * The view is going to be destroyed to save memory while the fragment stays in the stack.
+     * When the rebuilt view becomes visible, onLazyInitView() is called once more with a non-null (empty) Bundle,
+     * like a fragment restored after process death, so it isn't mistaken for the first init.
+     * The fields are still in the instance, the FragmentManager saves and restores the view state.
+     */
+    public void onViewTrimmed() {
+        if (mSaveInstanceState == null) {
+            mSaveInstanceState = new Bundle();
         }
     }
 
     public void onDestroyView() {
+        if (mLazyInitPriority != LazyInitScheduler.PRIORITY_NONE) {
+            LazyInitScheduler.getInstance().cancel(this);
+        }
+        mLazyInitStep = 0;
         mIsFirstVisible = true;
         mFixStatePagerAdapter = false;
     }
 
     /**记录对用户是否可见*/
     public void setUserVisibleHint(boolean isVisibleToUser) {
-        if (mFragment.isResumed() || (mFragment.isDetached() && isVisibleToUser)) {
-            if (!mIsSupportVisible && isVisibleToUser) {
+        if (mFragment.isResumed()) {
+            if (mIsSupportVisible != isVisibleToUser) {
+                enqueueDispatch();
+            }
+        } else if (mFragment.isDetached() && isVisibleToUser) {
+            if (!mIsSupportVisible) {
                 safeDispatchUserVisibleHint(true);
-            } else if (mIsSupportVisible && !isVisibleToUser) {
-                dispatchSupportVisible(false);
             }
         } else if (isVisibleToUser) {
             mInvisibleWhenLeave = false;
@@ -169,19 +194,33 @@ public class VisibleDelegate {
     private void safeDispatchUserVisibleHint(boolean visible) {
         if (mIsFirstVisible) {
             if (!visible) return;
-            enqueueDispatchVisible();
+            enqueueDispatch();
         } else {
             dispatchSupportVisible(visible);
         }
     }
 
-    private void enqueueDispatchVisible() {
-        getHandler().post(new Runnable() {
-            @Override
-            public void run() {
-                dispatchSupportVisible(true);
-            }
-        });
+    private void enqueueDispatch() {
+        VisibilityDispatcher.getInstance().enqueue(this);
+    }
+
+    /**
+     * Called by VisibilityDispatcher on the next frame: dispatches the final state once, if it differs from
+     * the dispatched one.
+     */
+    void dispatchPendingVisibility() {
+        if (mFragment.getActivity() == null) return;
+
+        boolean visible = isFragmentVisible(mFragment);
+        Fragment parentFragment = mFragment.getParentFragment();
+        if (parentFragment != null && !isFragmentVisible(parentFragment)) {
+            visible = false;
+        }
+        if (visible == mIsSupportVisible) return;
+        // Paused in the meantime, onResume() dispatches it. The first one is enqueued before the fragment is resumed.
+        if (visible && !mIsFirstVisible && !mFragment.isResumed()) return;
+
+        dispatchSupportVisible(visible);
     }
 
     /**
@@ -189,6 +228,15 @@ public class VisibleDelegate {
      * 状态改变，则 mIsSupportVisible 会赋值为传入的 新值。
      */
     private void dispatchSupportVisible(boolean visible) {
+        FragmentationTrace.beginSection(visible ? "Fragmentation#dispatchSupportVisible" : "Fragmentation#dispatchSupportInvisible");
+        try {
+            dispatchSupportVisibleInternal(visible);
+        } finally {
+            FragmentationTrace.endSection();
+        }
+    }
+
+    private void dispatchSupportVisibleInternal(boolean visible) {
         if (mIsSupportVisible == visible) {
             mNeedDispatch = true;
             return;
@@ -202,9 +250,10 @@ public class VisibleDelegate {
             if (!mFragment.isAdded()) return;
             FragmentManager fragmentManager = mFragment.getChildFragmentManager();
             if (fragmentManager != null) {
-                List<Fragment> childFragments = FragmentationHack.getActiveFragments(fragmentManager);
+                List<Fragment> childFragments = FragmentStackIndex.getActiveFragments(fragmentManager);
                 if (childFragments != null) {
-                    for (Fragment child : childFragments) {
+                    for (int i = 0; i < childFragments.size(); i++) {
+                        Fragment child = childFragments.get(i);
                         if (child instanceof ISupportFragment && !child.isHidden() && child.getUserVisibleHint()) {
                             ((ISupportFragment) child).getSupportDelegate().getVisibleDelegate().dispatchSupportVisible(visible);
                         }
@@ -218,13 +267,46 @@ public class VisibleDelegate {
 
             if (mIsFirstVisible) {
                 mIsFirstVisible = false;
-                mSupportF.onLazyInitView(mSaveInstanceState);
+                if (LazyInitScheduler.isEnabled()) {
+                    LazyInitScheduler.getInstance().enqueue(this, LazyInitScheduler.PRIORITY_VISIBLE);
+                } else {
+                    boolean hasMore;
+                    do {
+                        hasMore = runLazyInitStep();
+                    } while (hasMore);
+                }
+            } else if (mLazyInitPriority != LazyInitScheduler.PRIORITY_NONE) {
+                // Lazy initialized before it's visible but not finished yet
+                LazyInitScheduler.getInstance().enqueue(this, LazyInitScheduler.PRIORITY_VISIBLE);
             }
         } else {
             mSupportF.onSupportInvisible();
         }
     }
 
+    /**
+     * Step 0 is onLazyInitView(), the next ones are the ILazyInitPhases phases.
+     *
+     * @return true if there are more steps.
+     */
+    boolean runLazyInitStep() {
+        int phaseCount = mSupportF instanceof ILazyInitPhases ? ((ILazyInitPhases) mSupportF).getLazyInitPhaseCount() : 0;
+        if (mLazyInitStep == 0) {
+            // Also when it's lazy initialized before it's visible
+            mIsFirstVisible = false;
+            mSupportF.onLazyInitView(mSaveInstanceState);
+        } else {
+            ((ILazyInitPhases) mSupportF).onLazyInitPhase(mLazyInitStep - 1, mSaveInstanceState);
+        }
+
+        if (mLazyInitStep < phaseCount) {
+            mLazyInitStep++;
+            return true;
+        }
+        mLazyInitStep = 0;
+        return false;
+    }
+
     private boolean isFragmentVisible(Fragment fragment) {
         return !fragment.isHidden() && fragment.getUserVisibleHint();
     }
@@ -232,11 +314,4 @@ public class VisibleDelegate {
     public boolean isSupportVisible() {
         return mIsSupportVisible;
     }
-
-    private Handler getHandler() {
-        if (mHandler == null) {
-            mHandler = new Handler(Looper.getMainLooper());
-        }
-        return mHandler;
-    }
 }
@@ -0,0 +1,2 @@
+# Fragmentation-debug, loaded by fragmentation_core through reflection
+-keep class me.yokeyword.fragmentation.debug.DebugStackDelegate { public <init>(android.support.v4.app.FragmentActivity); }
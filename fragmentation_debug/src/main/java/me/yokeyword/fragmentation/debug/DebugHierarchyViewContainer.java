@@ -0,0 +1,330 @@
+package me.yokeyword.fragmentation.debug;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.util.AttributeSet;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.yokeyword.fragmentation.ISupportFragment;
+
+/**
+ * Created by YoKeyword on 16/2/21.
+ * <p>
+ *  自定义树状图view容器，用于显示Fragment的层级嵌套结构
+ *  结构是
+ *  容器包裹条目，每个条目代表一个Fragment，每一个条目都可能拥有子Fragment，则此条目可展开
+ *
+ *  view简介：
+ *  01.此view是竖直的线性布局: 标题, 搜索框, 以及显示条目的ListView
+ *  02.{@link #bindFragmentManager(FragmentManager)} 绑定后, 显示期间Fragment的变化会实时更新到列表中
+ *  03.条目由ListView复用, 只创建屏幕内可见的条目; 展开/收起只重新计算要显示的行, 不再逐个插入/移除View
+ *  04.搜索框按类名过滤, 显示匹配的Fragment及其父Fragment
+ *  05.每个条目显示Fragment的状态: 是否隐藏, 是否可见, 是否在回退栈中, 以及容器id
+ *  06.item的最小高度是50dp ，缩进Padding是16dp，当Fragment层级逐层展开，每一层的缩进padding成倍数算法增长
+ * </p>
+ */
+public class DebugHierarchyViewContainer extends LinearLayout {
+    private static final long STATE_REFRESH_INTERVAL = 1000L;
+
+    private Context mContext;
+
+    private LinearLayout mTitleLayout;
+    private ListView mListView;
+    private HierarchyAdapter mAdapter;
+
+    private final DebugStackModel mModel = new DebugStackModel();
+    private final ArrayList<DebugStackModel.Node> mRows = new ArrayList<>();
+    private String mQuery = "";
+
+    private int mItemHeight;
+    private int mPadding;
+
+    /** The hidden/visible state has no lifecycle callback, rebind the rows on screen periodically. */
+    private final Runnable mStateRefresher = new Runnable() {
+        @Override
+        public void run() {
+            mAdapter.notifyDataSetChanged();
+            postDelayed(this, STATE_REFRESH_INTERVAL);
+        }
+    };
+
+    public DebugHierarchyViewContainer(Context context) {
+        super(context);
+        initView(context);
+    }
+
+    public DebugHierarchyViewContainer(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        initView(context);
+    }
+
+    public DebugHierarchyViewContainer(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        initView(context);
+    }
+
+    private void initView(Context context) {
+        mContext = context;
+        setOrientation(VERTICAL);
+        mItemHeight = dip2px(50);
+        mPadding = dip2px(16);
+
+        addView(getTitleLayout());
+        addView(getSearchView());
+
+        mListView = new ListView(context);
+        mListView.setLayoutParams(new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        mAdapter = new HierarchyAdapter();
+        mListView.setAdapter(mAdapter);
+        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                DebugStackModel.Node node = mRows.get(position);
+                if (!DebugStackModel.hasChildren(node) || mQuery.length() > 0) return;
+                node.expanded = !node.expanded;
+                refresh();
+            }
+        });
+        addView(mListView);
+
+        mModel.setListener(new DebugStackModel.Listener() {
+            @Override
+            public void onStackChanged() {
+                refresh();
+            }
+        });
+    }
+
+    private int dip2px(float dp) {
+        float scale = mContext.getResources().getDisplayMetrics().density;
+        return (int) (dp * scale + 0.5f);
+    }
+
+    /**
+     * Show the Fragments of fragmentManager, updated while this view is attached.
+     */
+    public void bindFragmentManager(FragmentManager fragmentManager) {
+        mModel.bind(fragmentManager);
+        refresh();
+    }
+
+    public void bindFragmentRecords(List<DebugFragmentRecord> fragmentRecords) {
+        mModel.bind(fragmentRecords);
+        refresh();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        postDelayed(mStateRefresher, STATE_REFRESH_INTERVAL);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mStateRefresher);
+        mModel.release();
+    }
+
+    private void refresh() {
+        mModel.flatten(mQuery, mRows);
+        mAdapter.notifyDataSetChanged();
+    }
+
+    @NonNull
+    private LinearLayout getTitleLayout() {
+        if (mTitleLayout != null) return mTitleLayout;
+
+        mTitleLayout = new LinearLayout(mContext);
+        mTitleLayout.setPadding(dip2px(24), dip2px(24), 0, dip2px(8));
+        mTitleLayout.setOrientation(LinearLayout.HORIZONTAL);
+        ViewGroup.LayoutParams flParams = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        mTitleLayout.setLayoutParams(flParams);
+
+        TextView title = new TextView(mContext);
+        title.setText("栈视图(Stack)");
+        title.setTextSize(20);
+        title.setTextColor(Color.BLACK);
+        LinearLayout.LayoutParams p = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        p.gravity = Gravity.CENTER_VERTICAL;
+        title.setLayoutParams(p);
+        mTitleLayout.addView(title);
+
+        ImageView img = new ImageView(mContext);
+        img.setImageResource(R.drawable.fragmentation_help);
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.leftMargin = dip2px(16);
+        params.gravity = Gravity.CENTER_VERTICAL;
+        img.setLayoutParams(params);
+        mTitleLayout.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Toast.makeText(mContext, "* means not in backBack.", Toast.LENGTH_SHORT).show();
+            }
+        });
+        mTitleLayout.addView(img);
+        return mTitleLayout;
+    }
+
+    /** 按类名过滤 */
+    private EditText getSearchView() {
+        EditText search = new EditText(mContext);
+        search.setSingleLine(true);
+        search.setHint("Search by class name");
+        search.setTextSize(14);
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.leftMargin = dip2px(20);
+        params.rightMargin = dip2px(20);
+        search.setLayoutParams(params);
+        search.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mQuery = s.toString().trim();
+                refresh();
+            }
+        });
+        return search;
+    }
+
+    /** 生成Item的内容view, 由ListView复用 */
+    private TextView createTextView() {
+        TextView tvItem = new TextView(mContext);
+
+        tvItem.setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        tvItem.setMinHeight(mItemHeight);
+        tvItem.setGravity(Gravity.CENTER_VERTICAL);
+        tvItem.setCompoundDrawablePadding(mPadding / 2);  //设置图片padding为1/2
+
+        TypedArray a = mContext.obtainStyledAttributes(new int[]{android.R.attr.selectableItemBackground});
+        tvItem.setBackgroundDrawable(a.getDrawable(0));   //设置背景
+        a.recycle();
+        return tvItem;
+    }
+
+    private void bindTextView(TextView tvItem, DebugStackModel.Node node) {
+        int hierarchy = node.depth;
+        if (hierarchy == 0) {            //如果是第一层item则设置
+            tvItem.setTextColor(Color.parseColor("#333333"));
+            tvItem.setTextSize(16);    //设置字体为16sp
+        } else {
+            tvItem.setTextColor(Color.GRAY);
+            tvItem.setTextSize(14);
+        }
+
+        int paddingLeft = (int) (mPadding + hierarchy * mPadding * 1.5);  //左Padding成倍数增加
+        if (DebugStackModel.hasChildren(node)) {
+            boolean expanded = node.expanded || mQuery.length() > 0;
+            tvItem.setCompoundDrawablesWithIntrinsicBounds(expanded ? R.drawable.fragmentation_ic_expandable : R.drawable.fragmentation_ic_right, 0, 0, 0);
+        } else {            //如果没有子View，则设置在计算的左Padding之上再加上16dp。
+            tvItem.setCompoundDrawablesWithIntrinsicBounds(0, 0, 0, 0);
+            paddingLeft += mPadding;
+        }
+        tvItem.setPadding(paddingLeft, 0, mPadding, 0);
+
+        tvItem.setText(getText(node));
+    }
+
+    private CharSequence getText(DebugStackModel.Node node) {
+        Fragment fragment = node.fragment;
+        if (fragment == null) return node.name;
+
+        SpannableStringBuilder text = new SpannableStringBuilder(node.name);
+        if (!isInBackStack(fragment)) {
+            text.append(" *");
+        }
+
+        int start = text.length();
+        text.append('\n');
+        text.append(fragment.isHidden() ? "hidden" : "shown");
+        if (fragment instanceof ISupportFragment && ((ISupportFragment) fragment).isSupportVisible()) {
+            text.append(" · visible");
+        }
+        if (!fragment.isAdded()) {
+            text.append(" · detached");
+        }
+        if (fragment.getId() != 0) {
+            text.append(" · container: ").append(getIdName(fragment.getId()));
+        }
+        text.setSpan(new RelativeSizeSpan(0.75f), start, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new ForegroundColorSpan(Color.GRAY), start, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return text;
+    }
+
+    private boolean isInBackStack(Fragment fragment) {
+        FragmentManager fragmentManager = fragment.getFragmentManager();
+        if (fragmentManager == null || fragment.getTag() == null) return false;
+
+        for (int i = fragmentManager.getBackStackEntryCount() - 1; i >= 0; i--) {
+            if (fragment.getTag().equals(fragmentManager.getBackStackEntryAt(i).getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getIdName(int id) {
+        try {
+            return mContext.getResources().getResourceEntryName(id);
+        } catch (Resources.NotFoundException e) {
+            return "0x" + Integer.toHexString(id);
+        }
+    }
+
+    private class HierarchyAdapter extends BaseAdapter {
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public DebugStackModel.Node getItem(int position) {
+            return mRows.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView tvItem = convertView instanceof TextView ? (TextView) convertView : createTextView();
+            bindTextView(tvItem, mRows.get(position));
+            return tvItem;
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package me.yokeyword.fragmentation.debug;
 
+import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentationHack;
 import android.support.v7.app.AlertDialog;
 import android.util.Log;
 import android.util.TypedValue;
@@ -20,35 +23,94 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import me.yokeyword.fragmentation.Fragmentation;
-import me.yokeyword.fragmentation.R;
+import me.yokeyword.fragmentation.helper.StackDebugger;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
 
 /**
  * Created by YoKey on 17/6/13.
  * 调试窗口具体实现类，debug专用，对应的是使用本类的Activity的生命周期
+ * <p>
+ * Loaded by fragmentation-core through reflection, see {@link StackDebugger}.
  */
 
-public class DebugStackDelegate implements SensorEventListener {
+public class DebugStackDelegate implements StackDebugger, SensorEventListener {
+    /**摇晃判定: 任一轴加速度达到该值的采样*/
+    private static final int SHAKE_THRESHOLD = 12;
+    /**在SHAKE_WINDOW_MS内出现SHAKE_SAMPLES次才算一次摇晃*/
+    private static final int SHAKE_SAMPLES = 3;
+    private static final long SHAKE_WINDOW_MS = 800;
+    /**触发后的冷却时间*/
+    private static final long SHAKE_COOLDOWN_MS = 2000;
+    /**10Hz采样足以识别摇晃*/
+    private static final int SAMPLING_PERIOD_US = 100 * 1000;
+
     private FragmentActivity mActivity;
     private SensorManager mSensorManager;
+    private Sensor mAccelerometer;
+    private Application.ActivityLifecycleCallbacks mLifecycleCallbacks;
     private AlertDialog mStackDialog;
 
+    private long mShakeWindowStart;
+    private int mShakeSamples;
+    private long mLastShakeTime;
+
     public DebugStackDelegate(FragmentActivity activity) {
         this.mActivity = activity;
     }
 
-    /**activity创建就会初始化传感器*/
+    /**摇一摇模式: 只在Activity处于前台时监听传感器*/
+    @Override
     public void onCreate(int mode) {
         if (mode != Fragmentation.SHAKE) return;
         mSensorManager = (SensorManager) mActivity.getSystemService(Context.SENSOR_SERVICE);
-        mSensorManager.registerListener(this,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                SensorManager.SENSOR_DELAY_NORMAL);
+        mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (mAccelerometer == null) return;
+
+        mLifecycleCallbacks = new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(Activity activity) {
+                if (activity == mActivity) {
+                    mSensorManager.registerListener(DebugStackDelegate.this, mAccelerometer, SAMPLING_PERIOD_US);
+                }
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+                if (activity == mActivity) {
+                    mSensorManager.unregisterListener(DebugStackDelegate.this);
+                    mShakeSamples = 0;
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        };
+        mActivity.getApplication().registerActivityLifecycleCallbacks(mLifecycleCallbacks);
     }
 
+    @Override
     public void onPostCreate(int mode) {
         if (mode != Fragmentation.BUBBLE) return;                      //悬浮模式走进来
         View root = mActivity.findViewById(android.R.id.content);      //整个窗体的根 View 中加入 悬浮view
@@ -73,7 +135,11 @@ public class DebugStackDelegate implements SensorEventListener {
         }
     }
 
+    @Override
     public void onDestroy() {
+        if (mLifecycleCallbacks != null) {
+            mActivity.getApplication().unregisterActivityLifecycleCallbacks(mLifecycleCallbacks);
+        }
         if (mSensorManager != null) {
             mSensorManager.unregisterListener(this);
         }
@@ -81,14 +147,23 @@ public class DebugStackDelegate implements SensorEventListener {
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        /**如果注册了摇晃传感器，就判断晃动达到12 这个值就触发显示 树状Fragment 层级结构图*/
-        int sensorType = event.sensor.getType();
+        /**晃动达到12的采样在短时间内出现多次才触发显示 树状Fragment 层级结构图, 触发后冷却一段时间*/
+        if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) return;
         float[] values = event.values;
-        if (sensorType == Sensor.TYPE_ACCELEROMETER) {
-            int value = 12;
-            if ((Math.abs(values[0]) >= value || Math.abs(values[1]) >= value || Math.abs(values[2]) >= value)) {
-                showFragmentStackHierarchyView();
-            }
+        if (Math.abs(values[0]) < SHAKE_THRESHOLD && Math.abs(values[1]) < SHAKE_THRESHOLD && Math.abs(values[2]) < SHAKE_THRESHOLD) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastShakeTime < SHAKE_COOLDOWN_MS) return;
+        if (now - mShakeWindowStart > SHAKE_WINDOW_MS) {
+            mShakeWindowStart = now;
+            mShakeSamples = 0;
+        }
+        if (++mShakeSamples >= SHAKE_SAMPLES) {
+            mShakeSamples = 0;
+            mLastShakeTime = now;
+            showFragmentStackHierarchyView();
         }
     }
 
@@ -99,10 +174,11 @@ public class DebugStackDelegate implements SensorEventListener {
     /**
      * 调试相关:以dialog形式 显示 栈视图
      */
+    @Override
     public void showFragmentStackHierarchyView() {
         if (mStackDialog != null && mStackDialog.isShowing()) return;
         DebugHierarchyViewContainer container = new DebugHierarchyViewContainer(mActivity);
-        container.bindFragmentRecords(getFragmentRecords());
+        container.bindFragmentManager(mActivity.getSupportFragmentManager());
         container.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
         mStackDialog = new AlertDialog.Builder(mActivity)
                 .setView(container)
@@ -115,6 +191,7 @@ public class DebugStackDelegate implements SensorEventListener {
     /**
      * 调试相关:以log形式 打印 栈视图
      */
+    @Override
     public void logFragmentRecords(String tag) {
         List<DebugFragmentRecord> fragmentRecordList = getFragmentRecords();
         if (fragmentRecordList == null) return;
@@ -146,11 +223,19 @@ public class DebugStackDelegate implements SensorEventListener {
         }
     }
 
+    /**
+     * 调试相关:以JSON文件形式 导出 完整的栈视图, 在后台线程写入
+     */
+    @Override
+    public void exportFragmentRecords(File file, StackDebugger.ExportCallback callback) {
+        new DebugStackExporter().export(mActivity.getClass().getName(), mActivity.getSupportFragmentManager(), file, callback);
+    }
+
     /**获得所有的Fragment记录*/
     private List<DebugFragmentRecord> getFragmentRecords() {
         List<DebugFragmentRecord> fragmentRecordList = new ArrayList<>();
 
-        List<Fragment> fragmentList = FragmentationHack.getActiveFragments(mActivity.getSupportFragmentManager());
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(mActivity.getSupportFragmentManager());
 
         if (fragmentList == null || fragmentList.size() < 1) return null;
 
@@ -185,7 +270,7 @@ public class DebugStackDelegate implements SensorEventListener {
     private List<DebugFragmentRecord> getChildFragmentRecords(Fragment parentFragment) {
         List<DebugFragmentRecord> fragmentRecords = new ArrayList<>();
 
-        List<Fragment> fragmentList = FragmentationHack.getActiveFragments(parentFragment.getChildFragmentManager());
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(parentFragment.getChildFragmentManager());
         if (fragmentList == null || fragmentList.size() < 1) return null;
 
         for (int i = fragmentList.size() - 1; i >= 0; i--) {
@@ -0,0 +1,266 @@
+package me.yokeyword.fragmentation.debug;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.DrawableContainer;
+import android.graphics.drawable.LayerDrawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentationHack;
+import android.util.JsonWriter;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import me.yokeyword.fragmentation.ISupportFragment;
+import me.yokeyword.fragmentation.helper.StackDebugger;
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+
+/**
+ * 把完整的Fragment层级以JSON格式导出到文件, 包含每个Fragment的View数量和Bitmap内存估算, 便于对比不同版本的内存占用
+ * <p>
+ * The hierarchy is snapshotted on the main thread (views can only be read there), the JSON is streamed to
+ * the file on a background thread. Bitmaps are counted once per Fragment, the views of child Fragments
+ * belong to the child Fragments.
+ */
+class DebugStackExporter {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param callback may be null
+     */
+    void export(String activityName, FragmentManager fragmentManager, final File file, @Nullable final StackDebugger.ExportCallback callback) {
+        final String name = activityName;
+        final List<FragmentSnapshot> snapshots = snapshot(fragmentManager);
+        final long time = System.currentTimeMillis();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    write(file, name, time, snapshots);
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                if (callback == null) return;
+                final Exception finalError = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onExported(file, finalError);
+                    }
+                });
+            }
+        }, "Fragmentation-StackExport").start();
+    }
+
+    private List<FragmentSnapshot> snapshot(FragmentManager fragmentManager) {
+        if (fragmentManager == null) return Collections.emptyList();
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
+        if (fragmentList == null || fragmentList.isEmpty()) return Collections.emptyList();
+
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        long now = SystemClock.elapsedRealtime();
+        ArrayList<FragmentSnapshot> snapshots = new ArrayList<>(fragmentList.size());
+        for (int i = 0; i < fragmentList.size(); i++) {
+            Fragment fragment = fragmentList.get(i);
+            if (fragment == null) continue;
+            snapshots.add(snapshot(fragment, fragmentManager, index, now));
+        }
+        return snapshots;
+    }
+
+    private FragmentSnapshot snapshot(Fragment fragment, FragmentManager fragmentManager, FragmentStackIndex index, long now) {
+        FragmentSnapshot snapshot = new FragmentSnapshot();
+        snapshot.className = fragment.getClass().getName();
+        snapshot.tag = fragment.getTag();
+        snapshot.containerId = fragment.getId();
+        snapshot.containerName = getIdName(fragment);
+        snapshot.inBackStack = isInBackStack(fragment, fragmentManager);
+        snapshot.added = fragment.isAdded();
+        snapshot.hidden = fragment.isHidden();
+        snapshot.supportVisible = fragment instanceof ISupportFragment ? ((ISupportFragment) fragment).isSupportVisible() : null;
+        long addedTime = index == null ? -1 : index.getAddedTime(fragment);
+        snapshot.ageMs = addedTime < 0 ? -1 : now - addedTime;
+
+        FragmentManager childFragmentManager = FragmentationHack.peekChildFragmentManager(fragment);
+        if (childFragmentManager != null) {
+            snapshot.children = snapshot(childFragmentManager);
+        }
+
+        View view = fragment.getView();
+        if (view != null) {
+            Set<View> childRoots = Collections.newSetFromMap(new IdentityHashMap<View, Boolean>());
+            List<Fragment> childList = childFragmentManager == null ? null : FragmentStackIndex.getActiveFragments(childFragmentManager);
+            if (childList != null) {
+                for (int i = 0; i < childList.size(); i++) {
+                    Fragment child = childList.get(i);
+                    if (child != null && child.getView() != null) {
+                        childRoots.add(child.getView());
+                    }
+                }
+            }
+            Set<Bitmap> bitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+            snapshot.viewCount = measureView(view, childRoots, bitmaps);
+            for (Bitmap bitmap : bitmaps) {
+                snapshot.bitmapBytes += getByteCount(bitmap);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of views of the tree, without the ones of child Fragments.
+     */
+    private int measureView(View view, Set<View> childRoots, Set<Bitmap> bitmaps) {
+        collectBitmaps(view.getBackground(), bitmaps);
+        if (view instanceof ImageView) {
+            collectBitmaps(((ImageView) view).getDrawable(), bitmaps);
+        }
+
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                View child = group.getChildAt(i);
+                if (childRoots.contains(child)) continue;
+                count += measureView(child, childRoots, bitmaps);
+            }
+        }
+        return count;
+    }
+
+    private void collectBitmaps(Drawable drawable, Set<Bitmap> bitmaps) {
+        if (drawable == null) return;
+
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmaps.add(bitmap);
+            }
+        } else if (drawable instanceof LayerDrawable) {
+            LayerDrawable layers = (LayerDrawable) drawable;
+            for (int i = 0; i < layers.getNumberOfLayers(); i++) {
+                collectBitmaps(layers.getDrawable(i), bitmaps);
+            }
+        } else if (drawable instanceof DrawableContainer) {
+            // StateListDrawable, LevelListDrawable...: only the current one is loaded for sure
+            Drawable current = drawable.getCurrent();
+            if (current != drawable) {
+                collectBitmaps(current, bitmaps);
+            }
+        }
+    }
+
+    private long getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private boolean isInBackStack(Fragment fragment, FragmentManager fragmentManager) {
+        if (fragment.getTag() == null) return false;
+
+        for (int i = fragmentManager.getBackStackEntryCount() - 1; i >= 0; i--) {
+            if (fragment.getTag().equals(fragmentManager.getBackStackEntryAt(i).getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getIdName(Fragment fragment) {
+        if (fragment.getId() == 0 || fragment.getActivity() == null) return null;
+        try {
+            return fragment.getActivity().getResources().getResourceEntryName(fragment.getId());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void write(File file, String activityName, long time, List<FragmentSnapshot> snapshots) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+        try {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("activity").value(activityName);
+            writer.name("time").value(time);
+            writer.name("fragments");
+            writeSnapshots(writer, snapshots);
+            writer.endObject();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeSnapshots(JsonWriter writer, List<FragmentSnapshot> snapshots) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < snapshots.size(); i++) {
+            FragmentSnapshot snapshot = snapshots.get(i);
+            writer.beginObject();
+            writer.name("class").value(snapshot.className);
+            writer.name("tag").value(snapshot.tag);
+            writer.name("containerId").value(snapshot.containerId);
+            writer.name("container").value(snapshot.containerName);
+            writer.name("inBackStack").value(snapshot.inBackStack);
+            writer.name("added").value(snapshot.added);
+            writer.name("hidden").value(snapshot.hidden);
+            writer.name("supportVisible");
+            if (snapshot.supportVisible == null) {
+                writer.nullValue();
+            } else {
+                writer.value(snapshot.supportVisible);
+            }
+            writer.name("viewCount").value(snapshot.viewCount);
+            writer.name("bitmapBytes").value(snapshot.bitmapBytes);
+            writer.name("ageMs").value(snapshot.ageMs);
+            if (snapshot.children != null && !snapshot.children.isEmpty()) {
+                writer.name("children");
+                writeSnapshots(writer, snapshot.children);
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    private static final class FragmentSnapshot {
+        String className;
+        String tag;
+        int containerId;
+        String containerName;
+        boolean inBackStack;
+        boolean added;
+        boolean hidden;
+        Boolean supportVisible;
+        int viewCount;
+        long bitmapBytes;
+        long ageMs;
+        List<FragmentSnapshot> children;
+    }
+}
@@ -0,0 +1,240 @@
+package me.yokeyword.fragmentation.debug;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentationHack;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.FrameScheduler;
+
+/**
+ * 栈视图的数据模型: 打开时遍历一次Fragment树, 之后由FragmentLifecycleCallbacks增量更新
+ * <p>
+ * Changes are coalesced into one {@link Listener#onStackChanged()} per frame.
+ * The list only holds the rows that are shown, see {@link #flatten(String, ArrayList)}.
+ */
+final class DebugStackModel extends FragmentManager.FragmentLifecycleCallbacks {
+
+    interface Listener {
+        void onStackChanged();
+    }
+
+    static final class Node {
+        /**
+         * null if the node is built from a DebugFragmentRecord.
+         */
+        final Fragment fragment;
+        final CharSequence name;
+        final ArrayList<Node> children = new ArrayList<>();
+        Node parent;
+        boolean expanded;
+        int depth;
+
+        Node(Fragment fragment, CharSequence name) {
+            this.fragment = fragment;
+            this.name = name;
+        }
+    }
+
+    private final Node mRoot = new Node(null, null);
+    private final IdentityHashMap<Fragment, Node> mNodes = new IdentityHashMap<>();
+    private FragmentManager mFragmentManager;
+    private Listener mListener;
+    private final FrameScheduler mScheduler = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            if (mListener != null) {
+                mListener.onStackChanged();
+            }
+        }
+    });
+
+    void setListener(Listener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Build the tree of fragmentManager and keep it up to date until {@link #release()}.
+     */
+    void bind(FragmentManager fragmentManager) {
+        release();
+        clear();
+        mFragmentManager = fragmentManager;
+        addFragments(fragmentManager);
+        fragmentManager.registerFragmentLifecycleCallbacks(this, true);
+    }
+
+    /**
+     * A snapshot that isn't updated.
+     */
+    void bind(List<DebugFragmentRecord> fragmentRecords) {
+        release();
+        clear();
+        addRecords(mRoot, fragmentRecords);
+    }
+
+    void release() {
+        if (mFragmentManager != null) {
+            mFragmentManager.unregisterFragmentLifecycleCallbacks(this);
+            mFragmentManager = null;
+        }
+        mScheduler.cancel();
+    }
+
+    /**
+     * Put the rows to show into out, top of the stack first.
+     *
+     * @param query empty: the expanded nodes; otherwise the nodes whose name contains query, with their parents.
+     */
+    void flatten(String query, ArrayList<Node> out) {
+        out.clear();
+        if (query == null || query.length() == 0) {
+            flatten(mRoot, 0, null, out);
+        } else {
+            flatten(mRoot, 0, query.toLowerCase(Locale.US), out);
+        }
+    }
+
+    static boolean hasChildren(Node node) {
+        return !node.children.isEmpty();
+    }
+
+    /**
+     * @return true if a node of the subtree matches query.
+     */
+    private boolean flatten(Node node, int depth, String query, ArrayList<Node> out) {
+        boolean matched = false;
+        for (int i = node.children.size() - 1; i >= 0; i--) {
+            Node child = node.children.get(i);
+            child.depth = depth;
+            int position = out.size();
+            out.add(child);
+
+            if (query == null) {
+                if (child.expanded) {
+                    flatten(child, depth + 1, null, out);
+                }
+                continue;
+            }
+
+            boolean childMatched = flatten(child, depth + 1, query, out);
+            if (child.name.toString().toLowerCase(Locale.US).contains(query) || childMatched) {
+                matched = true;
+            } else {
+                out.subList(position, out.size()).clear();
+            }
+        }
+        return matched;
+    }
+
+    private void addFragments(FragmentManager fragmentManager) {
+        List<Fragment> fragmentList = FragmentStackIndex.getActiveFragments(fragmentManager);
+        if (fragmentList == null) return;
+
+        for (int i = 0; i < fragmentList.size(); i++) {
+            Fragment fragment = fragmentList.get(i);
+            if (fragment == null) continue;
+            addNode(fragment);
+
+            FragmentManager childFragmentManager = FragmentationHack.peekChildFragmentManager(fragment);
+            if (childFragmentManager != null) {
+                addFragments(childFragmentManager);
+            }
+        }
+    }
+
+    private void addRecords(Node parent, List<DebugFragmentRecord> fragmentRecords) {
+        if (fragmentRecords == null) return;
+
+        for (int i = 0; i < fragmentRecords.size(); i++) {
+            DebugFragmentRecord record = fragmentRecords.get(i);
+            Node node = new Node(null, record.fragmentName);
+            node.parent = parent;
+            parent.children.add(node);
+            addRecords(node, record.childFragmentRecord);
+        }
+    }
+
+    private void addNode(Fragment fragment) {
+        if (mNodes.containsKey(fragment)) return;
+
+        Node parent = null;
+        if (fragment.getParentFragment() != null) {
+            parent = mNodes.get(fragment.getParentFragment());
+        }
+        if (parent == null) {
+            parent = mRoot;
+        }
+        Node node = new Node(fragment, fragment.getClass().getSimpleName());
+        node.parent = parent;
+        parent.children.add(node);
+        mNodes.put(fragment, node);
+    }
+
+    private void removeNode(Fragment fragment) {
+        Node node = mNodes.get(fragment);
+        if (node == null) return;
+        node.parent.children.remove(node);
+        removeSubtree(node);
+    }
+
+    private void removeSubtree(Node node) {
+        if (node.fragment != null) {
+            mNodes.remove(node.fragment);
+        }
+        for (int i = 0; i < node.children.size(); i++) {
+            removeSubtree(node.children.get(i));
+        }
+    }
+
+    private void clear() {
+        mRoot.children.clear();
+        mNodes.clear();
+    }
+
+    private void notifyChanged() {
+        if (mListener != null) {
+            mScheduler.schedule();
+        }
+    }
+
+    @Override
+    public void onFragmentAttached(FragmentManager fm, Fragment f, Context context) {
+        addNode(f);
+        notifyChanged();
+    }
+
+    @Override
+    public void onFragmentDetached(FragmentManager fm, Fragment f) {
+        removeNode(f);
+        notifyChanged();
+    }
+
+    @Override
+    public void onFragmentViewCreated(FragmentManager fm, Fragment f, View v, Bundle savedInstanceState) {
+        notifyChanged();
+    }
+
+    @Override
+    public void onFragmentResumed(FragmentManager fm, Fragment f) {
+        notifyChanged();
+    }
+
+    @Override
+    public void onFragmentPaused(FragmentManager fm, Fragment f) {
+        notifyChanged();
+    }
+
+    @Override
+    public void onFragmentViewDestroyed(FragmentManager fm, Fragment f) {
+        notifyChanged();
+    }
+}
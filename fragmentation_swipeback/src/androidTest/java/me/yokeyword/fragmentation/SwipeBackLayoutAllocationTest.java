@@ -0,0 +1,220 @@
+package me.yokeyword.fragmentation;
+
+import android.app.Instrumentation;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MotionEvent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The drag path of SwipeBackLayout allocates nothing: the touch events of a simulated edge drag,
+ * dispatched to the layout on the main thread, are counted with Debug.getThreadAllocCount().
+ * <p>
+ * The events are obtained before the counting, which starts at the down so the capture is counted too.
+ * A first drag warms up the lazily created objects. The drag stays below the finish threshold, the Activity
+ * or the top Fragment settles back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SwipeBackLayoutAllocationTest {
+    private static final int MOVE_COUNT = 30;
+    // Held still before the up, the release velocity is below the fling velocity then
+    private static final int HOLD_COUNT = 10;
+    private static final long FRAME_MILLIS = 16L;
+    private static final long TIMEOUT_SECONDS = 5L;
+
+    @Rule
+    public ActivityTestRule<SwipeBackTestActivity> mActivityRule = new ActivityTestRule<>(SwipeBackTestActivity.class);
+
+    private volatile CountDownLatch mIdleLatch;
+
+    @Test
+    public void dragDefaultRenderMode() throws InterruptedException {
+        assertDragAllocations(mActivityRule.getActivity().getSwipeBackLayout(), SwipeBackLayout.RENDER_MODE_DEFAULT, false);
+    }
+
+    @Test
+    public void dragHardwareRenderMode() throws InterruptedException {
+        assertDragAllocations(mActivityRule.getActivity().getSwipeBackLayout(), SwipeBackLayout.RENDER_MODE_HARDWARE, false);
+    }
+
+    @Test
+    public void dragCoalescedEvents() throws InterruptedException {
+        assertDragAllocations(mActivityRule.getActivity().getSwipeBackLayout(), SwipeBackLayout.RENDER_MODE_HARDWARE, true);
+    }
+
+    @Test
+    public void dragFragmentLivePreview() throws InterruptedException {
+        SwipeBackLayout layout = loadFragments(SwipeBackLayout.PREVIEW_MODE_LIVE);
+        assertDragAllocations(layout, SwipeBackLayout.RENDER_MODE_DEFAULT, false);
+    }
+
+    @Test
+    public void dragFragmentLivePreviewHardwareRenderMode() throws InterruptedException {
+        SwipeBackLayout layout = loadFragments(SwipeBackLayout.PREVIEW_MODE_LIVE);
+        assertDragAllocations(layout, SwipeBackLayout.RENDER_MODE_HARDWARE, false);
+    }
+
+    @Test
+    public void dragFragmentSnapshotPreview() throws InterruptedException {
+        SwipeBackLayout layout = loadFragments(SwipeBackLayout.PREVIEW_MODE_SNAPSHOT);
+        assertDragAllocations(layout, SwipeBackLayout.RENDER_MODE_HARDWARE, false);
+    }
+
+    /**
+     * @return the SwipeBackLayout of the top Fragment, once its transitions and its snapshot are done.
+     */
+    private SwipeBackLayout loadFragments(final int previewMode) throws InterruptedException {
+        final SwipeBackTestFragment[] top = new SwipeBackTestFragment[1];
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                top[0] = mActivityRule.getActivity().loadFragments();
+            }
+        });
+        awaitTransitions(top[0]);
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                top[0].getSwipeBackLayout().setPreviewMode(previewMode);
+            }
+        });
+        // The snapshot is captured by an action enqueued before ours
+        awaitTransitions(top[0]);
+        return top[0].getSwipeBackLayout();
+    }
+
+    private void awaitTransitions(final SwipeBackTestFragment fragment) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                fragment.enqueueAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue("The transitions didn't end", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    private void assertDragAllocations(final SwipeBackLayout layout, final int renderMode, final boolean coalesce)
+            throws InterruptedException {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                layout.setRenderMode(renderMode);
+                layout.setCoalesceSwipeEvents(coalesce);
+                layout.addSwipeListener(new SwipeBackLayout.OnSwipeListener() {
+                    @Override
+                    public void onDragStateChange(int state) {
+                        CountDownLatch latch = mIdleLatch;
+                        if (state == SwipeBackLayout.STATE_IDLE && latch != null) {
+                            latch.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onEdgeTouch(int oritentationEdgeFlag) {
+                    }
+
+                    @Override
+                    public void onDragScrolled(float scrollPercent) {
+                    }
+                });
+            }
+        });
+
+        // Warm up
+        drag(layout);
+        final int[] allocCount = new int[1];
+        final MotionEvent[] events = obtainDrag(layout.getWidth());
+        mIdleLatch = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < events.length - 1; i++) {
+                    layout.dispatchTouchEvent(events[i]);
+                }
+                Debug.stopAllocCounting();
+                allocCount[0] = Debug.getThreadAllocCount();
+
+                layout.dispatchTouchEvent(events[events.length - 1]);
+            }
+        });
+        recycle(events);
+        awaitSettle();
+
+        assertEquals("Objects allocated by the drag", 0, allocCount[0]);
+    }
+
+    private void drag(final SwipeBackLayout layout) throws InterruptedException {
+        final MotionEvent[] events = obtainDrag(layout.getWidth());
+        mIdleLatch = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (MotionEvent event : events) {
+                    layout.dispatchTouchEvent(event);
+                }
+            }
+        });
+        recycle(events);
+        awaitSettle();
+    }
+
+    /**
+     * Down on the left edge, moves up to 30% of the width, held still, up.
+     */
+    private MotionEvent[] obtainDrag(int width) {
+        MotionEvent[] events = new MotionEvent[MOVE_COUNT + HOLD_COUNT + 2];
+        long downTime = SystemClock.uptimeMillis();
+        float y = 200;
+        float x = 2;
+        events[0] = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0);
+        float step = width * 0.3f / MOVE_COUNT;
+        for (int i = 1; i <= MOVE_COUNT; i++) {
+            x += step;
+            events[i] = MotionEvent.obtain(downTime, downTime + i * FRAME_MILLIS, MotionEvent.ACTION_MOVE, x, y, 0);
+        }
+        for (int i = MOVE_COUNT + 1; i <= MOVE_COUNT + HOLD_COUNT; i++) {
+            events[i] = MotionEvent.obtain(downTime, downTime + i * FRAME_MILLIS, MotionEvent.ACTION_MOVE, x, y, 0);
+        }
+        int last = events.length - 1;
+        events[last] = MotionEvent.obtain(downTime, downTime + last * FRAME_MILLIS, MotionEvent.ACTION_UP, x, y, 0);
+        return events;
+    }
+
+    private void recycle(MotionEvent[] events) {
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+    }
+
+    /**
+     * The release settles back to STATE_IDLE, then the frames of the settling run.
+     */
+    private void awaitSettle() throws InterruptedException {
+        assertTrue("The drag didn't settle", mIdleLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        mIdleLatch = null;
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+}
@@ -0,0 +1,36 @@
+package me.yokeyword.fragmentation;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.widget.FrameLayout;
+
+import me.yokeyword.fragmentation_swipeback.SwipeBackActivity;
+import me.yokeyword.fragmentation_swipeback.test.R;
+
+/**
+ * A SwipeBackActivity with a plain content view, the Activity itself is swiped,
+ * or the top of the Fragments loaded by {@link #loadFragments()}.
+ */
+public class SwipeBackTestActivity extends SwipeBackActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        FrameLayout content = new FrameLayout(this);
+        content.setId(R.id.swipe_back_test_container);
+        content.setBackgroundColor(Color.WHITE);
+        setContentView(content);
+    }
+
+    /**
+     * Loads a root Fragment and starts another one above it.
+     *
+     * @return the top Fragment
+     */
+    SwipeBackTestFragment loadFragments() {
+        loadRootFragment(R.id.swipe_back_test_container, new SwipeBackTestFragment());
+        SwipeBackTestFragment top = new SwipeBackTestFragment();
+        start(top);
+        return top;
+    }
+}
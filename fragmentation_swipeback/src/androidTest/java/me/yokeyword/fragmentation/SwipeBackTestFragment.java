@@ -0,0 +1,24 @@
+package me.yokeyword.fragmentation;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import me.yokeyword.fragmentation_swipeback.SwipeBackFragment;
+
+/**
+ * A SwipeBackFragment with a plain view.
+ */
+public class SwipeBackTestFragment extends SwipeBackFragment {
+
+    @Nullable
+    @Override
+    public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        View view = new View(getContext());
+        view.setBackgroundColor(Color.WHITE);
+        return attachToSwipeBack(view);
+    }
+}
@@ -1,13 +1,20 @@
 package me.yokeyword.fragmentation;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.support.annotation.IntDef;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentationHack;
 import android.support.v4.view.ViewCompat;
 import android.support.v4.widget.ViewDragHelper;
@@ -22,6 +29,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.List;
 
+import me.yokeyword.fragmentation.helper.internal.FragmentStackIndex;
+import me.yokeyword.fragmentation.helper.internal.FrameScheduler;
 import me.yokeyword.fragmentation_swipeback.core.ISwipeBackActivity;
 
 /**
@@ -61,6 +70,33 @@ public class SwipeBackLayout extends FrameLayout {
      */
     public static final int STATE_SETTLING = ViewDragHelper.STATE_SETTLING;
 
+    /**
+     * The content is moved by layout, the scrim is drawn over the whole layout, every frame.
+     */
+    public static final int RENDER_MODE_DEFAULT = 0;
+
+    /**
+     * During a drag, the content view and the previous Fragment's view are drawn from hardware layers and only
+     * moved (offset/translation), the scrim and the shadow are drawn with precomputed paints and bounds,
+     * only the region they cover is invalidated.
+     */
+    public static final int RENDER_MODE_HARDWARE = 1;
+
+    /**
+     * The previous Fragment's view is made visible when the drag starts.
+     */
+    public static final int PREVIEW_MODE_LIVE = 0;
+
+    /**
+     * A bitmap of the previous Fragment's view, captured once it is hidden, is drawn during the drag,
+     * the view itself is made visible only when the pop commits. Falls back to the live view without a snapshot.
+     * <p>
+     * Only the top Fragment holds a snapshot: it's released when the Fragment or the window is hidden,
+     * on onTrimMemory() and when a drag ends, and captured again once the Fragment is the visible top.
+     * A snapshot whose view has changed since (relayout, or redraw from API 21) isn't used, the drag shows the live view.
+     */
+    public static final int PREVIEW_MODE_SNAPSHOT = 1;
+
     private static final int DEFAULT_SCRIM_COLOR = 0x99000000;
     private static final float DEFAULT_PARALLAX = 0.33f;
     private static final int FULL_ALPHA = 255;
@@ -83,6 +119,27 @@ public class SwipeBackLayout extends FrameLayout {
     private Drawable mShadowRight;
     private Rect mTmpRect = new Rect();
 
+    private int mRenderMode = RENDER_MODE_DEFAULT;
+    private final Paint mScrimPaint = new Paint();
+    private int mShadowAlpha = -1;
+    private boolean mLayersPromoted;
+    private View mPromotedPreView;
+    private int mContentLayerType;
+    private int mPreLayerType;
+
+    private int mPreviewMode = PREVIEW_MODE_LIVE;
+    // Kept and redrawn while this Fragment is the visible top, mSnapshotFragment is null when its content is invalid
+    private Bitmap mSnapshot;
+    private Fragment mSnapshotFragment;
+    private int mSnapshotX;
+    private int mSnapshotY;
+    private float mSnapshotTranslationX;
+    private boolean mSnapshotPreviewing;
+    private boolean mSnapshotScheduled;
+    // Registered while a snapshot is held
+    private ComponentCallbacks2 mSnapshotTrimCallbacks;
+    private int[] mTmpLocation = new int[2];
+
     private int mEdgeFlag;
     private boolean mEnable = true;
     private int mCurrentSwipeOrientation;
@@ -99,6 +156,13 @@ public class SwipeBackLayout extends FrameLayout {
      * The set of listeners to be sent events through.
      */
     private List<OnSwipeListener> mListeners;
+    private CaptureGate mCaptureGate;
+    private boolean mCapturePending;
+
+    private boolean mCoalesceSwipeEvents;
+    private FrameScheduler mDragScrolledScheduler;
+    private boolean mDragScrolledPending;
+    private float mPendingScrollPercent;
 
     public SwipeBackLayout(Context context) {
         this(context, null);
@@ -115,6 +179,7 @@ public class SwipeBackLayout extends FrameLayout {
 
     private void init() {
         mHelper = ViewDragHelper.create(this, new ViewDragCallback());
+        mScrimPaint.setColor(DEFAULT_SCRIM_COLOR);
         setShadow(me.yokeyword.fragmentation_swipeback.R.drawable.shadow_left, EDGE_LEFT);
         setEdgeOrientation(EDGE_LEFT);
     }
@@ -136,6 +201,48 @@ public class SwipeBackLayout extends FrameLayout {
         this.mParallaxOffset = offset;
     }
 
+    /**
+     * Default: {@link #RENDER_MODE_DEFAULT}
+     *
+     * @see #RENDER_MODE_HARDWARE
+     */
+    public void setRenderMode(@RenderMode int renderMode) {
+        releaseLayers();
+        this.mRenderMode = renderMode;
+    }
+
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    @IntDef({RENDER_MODE_DEFAULT, RENDER_MODE_HARDWARE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface RenderMode {
+    }
+
+    /**
+     * Only for Fragment swipe-back. Default: {@link #PREVIEW_MODE_LIVE}
+     *
+     * @see #PREVIEW_MODE_SNAPSHOT
+     */
+    public void setPreviewMode(@PreviewMode int previewMode) {
+        this.mPreviewMode = previewMode;
+        if (previewMode == PREVIEW_MODE_SNAPSHOT) {
+            scheduleSnapshot();
+        } else {
+            releaseSnapshot();
+        }
+    }
+
+    public int getPreviewMode() {
+        return mPreviewMode;
+    }
+
+    @IntDef({PREVIEW_MODE_LIVE, PREVIEW_MODE_SNAPSHOT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface PreviewMode {
+    }
+
     /**
      * Enable edge tracking for the selected edges of the parent view.
      * The callback's {@link ViewDragHelper.Callback#onEdgeTouched(int, int)} and
@@ -179,6 +286,33 @@ public class SwipeBackLayout extends FrameLayout {
         setShadow(getResources().getDrawable(resId), edgeFlag);
     }
 
+    /**
+     * Gate the capture of the edge drags, e.g. until the Activity window is translucent.
+     */
+    public void setCaptureGate(CaptureGate gate) {
+        mCaptureGate = gate;
+        mCapturePending = false;
+    }
+
+    public interface CaptureGate {
+        /**
+         * A touch went down on a tracked edge, a drag may follow: the time to prepare it.
+         */
+        void onEdgeTouched(int edgeFlag);
+
+        /**
+         * Called on each capture attempt of an edge drag, before the edge touch is dispatched.
+         *
+         * @return false to refuse it, it's attempted again on the next move events.
+         */
+        boolean onCaptureRequest(int edgeFlag);
+
+        /**
+         * The touch on the edge ended without a capture.
+         */
+        void onCaptureAbandoned();
+    }
+
     /**
      * Add a callback to be invoked when a swipe event is sent to this view.
      *
@@ -203,6 +337,71 @@ public class SwipeBackLayout extends FrameLayout {
         mListeners.remove(listener);
     }
 
+    /**
+     * 每帧最多回调一次 {@link OnSwipeListener#onDragScrolled(float)}, 使用最新的滑动百分比. Default: false
+     * <p>
+     * A pending onDragScrolled is delivered before onDragStateChange/onEdgeTouch, the order is kept.
+     */
+    public void setCoalesceSwipeEvents(boolean coalesce) {
+        if (!coalesce) {
+            flushDragScrolled();
+        }
+        mCoalesceSwipeEvents = coalesce;
+    }
+
+    private void dispatchEdgeTouch(int edgeFlag) {
+        if (mListeners == null || mListeners.isEmpty()) return;
+        flushDragScrolled();
+        // Index loop, no Iterator on the touch path
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onEdgeTouch(edgeFlag);
+        }
+    }
+
+    private void dispatchDragStateChange(int state) {
+        if (mListeners == null || mListeners.isEmpty()) return;
+        flushDragScrolled();
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onDragStateChange(state);
+        }
+    }
+
+    private void dispatchDragScrolled(float scrollPercent) {
+        if (mListeners == null || mListeners.isEmpty()) return;
+        if (!mCoalesceSwipeEvents) {
+            notifyDragScrolled(scrollPercent);
+            return;
+        }
+
+        mPendingScrollPercent = scrollPercent;
+        if (!mDragScrolledPending) {
+            mDragScrolledPending = true;
+            if (mDragScrolledScheduler == null) {
+                mDragScrolledScheduler = new FrameScheduler(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushDragScrolled();
+                    }
+                });
+            }
+            mDragScrolledScheduler.schedule();
+        }
+    }
+
+    private void flushDragScrolled() {
+        if (!mDragScrolledPending) return;
+        mDragScrolledPending = false;
+        mDragScrolledScheduler.cancel();
+        notifyDragScrolled(mPendingScrollPercent);
+    }
+
+    private void notifyDragScrolled(float scrollPercent) {
+        if (mListeners == null) return;
+        for (int i = 0; i < mListeners.size(); i++) {
+            mListeners.get(i).onDragScrolled(scrollPercent);
+        }
+    }
+
     public interface OnSwipeListener {
         /**
          * Invoke when state change
@@ -231,17 +430,274 @@ public class SwipeBackLayout extends FrameLayout {
         void onDragScrolled(float scrollPercent);
     }
 
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (mSnapshotPreviewing && mSnapshot != null && mHelper.getViewDragState() != STATE_IDLE) {
+            canvas.drawBitmap(mSnapshot, mSnapshotX + mSnapshotTranslationX, mSnapshotY, null);
+        }
+        super.dispatchDraw(canvas);
+    }
+
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
         boolean isDrawView = child == mContentView;
         boolean drawChild = super.drawChild(canvas, child, drawingTime);
         if (isDrawView && mScrimOpacity > 0 && mHelper.getViewDragState() != ViewDragHelper.STATE_IDLE) {
-            drawShadow(canvas, child);
-            drawScrim(canvas, child);
+            if (mRenderMode == RENDER_MODE_HARDWARE) {
+                drawShadowWithBounds(canvas, child);
+                drawScrimRect(canvas, child);
+            } else {
+                drawShadow(canvas, child);
+                drawScrim(canvas, child);
+            }
         }
         return drawChild;
     }
 
+    /**
+     * The bounds are set by {@link #prepareShadowBounds(View)} when the drag starts, only translated here.
+     */
+    private void drawShadowWithBounds(Canvas canvas, View child) {
+        Drawable shadow;
+        int x;
+        if ((mCurrentSwipeOrientation & EDGE_LEFT) != 0) {
+            shadow = mShadowLeft;
+            x = child.getLeft();
+        } else if ((mCurrentSwipeOrientation & EDGE_RIGHT) != 0) {
+            shadow = mShadowRight;
+            x = child.getRight();
+        } else {
+            return;
+        }
+
+        int alpha = (int) (mScrimOpacity * FULL_ALPHA);
+        if (alpha != mShadowAlpha) {
+            mShadowAlpha = alpha;
+            shadow.setAlpha(alpha);
+        }
+        int saveCount = canvas.save();
+        canvas.translate(x, child.getTop());
+        shadow.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawScrimRect(Canvas canvas, View child) {
+        final int baseAlpha = (DEFAULT_SCRIM_COLOR & 0xff000000) >>> 24;
+        mScrimPaint.setAlpha((int) (baseAlpha * mScrimOpacity));
+
+        if ((mCurrentSwipeOrientation & EDGE_LEFT) != 0) {
+            canvas.drawRect(0, 0, child.getLeft(), getHeight(), mScrimPaint);
+        } else if ((mCurrentSwipeOrientation & EDGE_RIGHT) != 0) {
+            canvas.drawRect(child.getRight(), 0, getWidth(), getHeight(), mScrimPaint);
+        }
+    }
+
+    private void prepareShadowBounds(View child) {
+        mShadowAlpha = -1;
+        if ((mCurrentSwipeOrientation & EDGE_LEFT) != 0) {
+            mShadowLeft.setBounds(-mShadowLeft.getIntrinsicWidth(), 0, 0, child.getHeight());
+        } else if ((mCurrentSwipeOrientation & EDGE_RIGHT) != 0) {
+            mShadowRight.setBounds(0, 0, mShadowRight.getIntrinsicWidth(), child.getHeight());
+        }
+    }
+
+    /**
+     * Only the scrim and the shadow between the old and the new position change,
+     * the moved content view is invalidated by itself.
+     */
+    private void invalidateScrimRegion(int oldLeft, int newLeft) {
+        if ((mCurrentSwipeOrientation & EDGE_LEFT) != 0) {
+            invalidate(0, 0, Math.max(oldLeft, newLeft), getHeight());
+        } else if ((mCurrentSwipeOrientation & EDGE_RIGHT) != 0) {
+            int width = mContentView.getWidth();
+            invalidate(Math.min(oldLeft, newLeft) + width, 0, getWidth(), getHeight());
+        }
+    }
+
+    private void promoteLayers() {
+        if (mLayersPromoted || !isHardwareAccelerated()) return;
+        mLayersPromoted = true;
+
+        mContentLayerType = ViewCompat.getLayerType(mContentView);
+        ViewCompat.setLayerType(mContentView, ViewCompat.LAYER_TYPE_HARDWARE, null);
+
+        mPromotedPreView = mPreFragment == null || mSnapshotPreviewing ? null : mPreFragment.getView();
+        if (mPromotedPreView != null) {
+            mPreLayerType = ViewCompat.getLayerType(mPromotedPreView);
+            ViewCompat.setLayerType(mPromotedPreView, ViewCompat.LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    private void releaseLayers() {
+        if (!mLayersPromoted) return;
+        mLayersPromoted = false;
+
+        ViewCompat.setLayerType(mContentView, mContentLayerType, null);
+        if (mPromotedPreView != null) {
+            ViewCompat.setLayerType(mPromotedPreView, mPreLayerType, null);
+            mPromotedPreView = null;
+        }
+    }
+
+    /**
+     * Same parallax as {@link #computeScroll()} in {@link #RENDER_MODE_DEFAULT}, by translation.
+     */
+    private void updatePreViewTranslation(View capturedView) {
+        if (mPreFragment == null) return;
+        View preView = mPreFragment.getView();
+        if (preView == null) return;
+
+        float translationX = 0;
+        if (!mCallOnDestroyView) {
+            int leftOffset = (int) ((capturedView.getLeft() - getWidth()) * mParallaxOffset * mScrimOpacity);
+            translationX = (leftOffset > 0 ? 0 : leftOffset) - preView.getLeft();
+        }
+        if (preView.getTranslationX() != translationX) {
+            preView.setTranslationX(translationX);
+        }
+    }
+
+    /**
+     * Captured after the running transitions end, the previous Fragment is hidden by then.
+     */
+    private void scheduleSnapshot() {
+        if (mSnapshotScheduled || hasFreshSnapshot() || !isVisibleTop()) {
+            return;
+        }
+        mSnapshotScheduled = true;
+        mFragment.enqueueAction(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotScheduled = false;
+                captureSnapshot();
+            }
+        });
+    }
+
+    private void captureSnapshot() {
+        if (mPreviewMode != PREVIEW_MODE_SNAPSHOT || hasFreshSnapshot() || !isVisibleTop()) {
+            return;
+        }
+        mSnapshotFragment = null;
+        Fragment preFragment = findPreFragment();
+        if (preFragment == null) return;
+        View preView = preFragment.getView();
+        if (preView.getWidth() <= 0 || preView.getHeight() <= 0) return;
+
+        Bitmap snapshot = mSnapshot;
+        if (snapshot != null && snapshot.getWidth() == preView.getWidth() && snapshot.getHeight() == preView.getHeight()) {
+            // Not drawn while it's not previewing, so it's redrawn in place
+            snapshot.eraseColor(Color.TRANSPARENT);
+        } else {
+            mSnapshot = null;
+            try {
+                snapshot = Bitmap.createBitmap(preView.getWidth(), preView.getHeight(), Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                // Live preview then
+                releaseSnapshot();
+                return;
+            }
+        }
+        // A hidden view keeps its last layout, draw() doesn't need it to be visible
+        Canvas canvas = new Canvas(snapshot);
+        canvas.translate(-preView.getScrollX(), -preView.getScrollY());
+        preView.draw(canvas);
+
+        preView.getLocationInWindow(mTmpLocation);
+        mSnapshotX = mTmpLocation[0] - (int) preView.getTranslationX();
+        mSnapshotY = mTmpLocation[1] - (int) preView.getTranslationY();
+        getLocationInWindow(mTmpLocation);
+        mSnapshotX -= mTmpLocation[0];
+        mSnapshotY -= mTmpLocation[1];
+
+        mSnapshot = snapshot;
+        mSnapshotFragment = preFragment;
+        registerSnapshotTrimCallbacks();
+    }
+
+    private void releaseSnapshot() {
+        mSnapshotPreviewing = false;
+        mSnapshotFragment = null;
+        // Not recycled, the last frame's display list may still reference it
+        mSnapshot = null;
+        if (mSnapshotTrimCallbacks != null) {
+            getContext().getApplicationContext().unregisterComponentCallbacks(mSnapshotTrimCallbacks);
+            mSnapshotTrimCallbacks = null;
+        }
+    }
+
+    private boolean hasFreshSnapshot() {
+        return mSnapshot != null && mSnapshotFragment != null && !isSnapshotStale();
+    }
+
+    /**
+     * The snapshot is only held by the Fragment that the user sees on top.
+     */
+    private boolean isVisibleTop() {
+        if (mFragment == null || !ViewCompat.isAttachedToWindow(this)) return false;
+        Fragment fragment = (Fragment) mFragment;
+        return !fragment.isHidden() && !fragment.isRemoving()
+                && getVisibility() == VISIBLE && getWindowVisibility() == VISIBLE;
+    }
+
+    /**
+     * @return true if the view was relayout or redrawn after the capture, the draw of the capture cleared its children.
+     */
+    private boolean isSnapshotStale() {
+        View preView = mSnapshotFragment.getView();
+        if (preView == null || mSnapshotFragment.isRemoving() || !(preView instanceof ViewGroup)) return true;
+        ViewGroup group = (ViewGroup) preView;
+        for (int i = 0; i < group.getChildCount(); i++) {
+            View child = group.getChildAt(i);
+            if (child.isLayoutRequested()) return true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && child.isDirty()) return true;
+        }
+        return false;
+    }
+
+    private void registerSnapshotTrimCallbacks() {
+        if (mSnapshotTrimCallbacks != null) return;
+        mSnapshotTrimCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // Not while it's drawn
+                if (level >= TRIM_MEMORY_RUNNING_LOW && !mSnapshotPreviewing) {
+                    releaseSnapshot();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                if (!mSnapshotPreviewing) {
+                    releaseSnapshot();
+                }
+            }
+        };
+        getContext().getApplicationContext().registerComponentCallbacks(mSnapshotTrimCallbacks);
+    }
+
+    /**
+     * The pop commits, the live view replaces the snapshot.
+     */
+    private void showLivePreView() {
+        if (!mSnapshotPreviewing) return;
+        mSnapshotPreviewing = false;
+        View preView = mPreFragment == null ? null : mPreFragment.getView();
+        if (preView != null) {
+            preView.setTranslationX(0);
+            preView.setVisibility(VISIBLE);
+        }
+    }
+
+    private void updateSnapshotTranslation(View capturedView) {
+        int leftOffset = (int) ((capturedView.getLeft() - getWidth()) * mParallaxOffset * mScrimOpacity);
+        mSnapshotTranslationX = leftOffset > 0 ? 0 : leftOffset;
+    }
+
     private void drawShadow(Canvas canvas, View child) {
         final Rect childRect = mTmpRect;
         child.getHitRect(childRect);
@@ -295,6 +751,8 @@ public class SwipeBackLayout extends FrameLayout {
             if (mHelper.continueSettling(true)) {
                 ViewCompat.postInvalidateOnAnimation(this);
             }
+            // The previous view is translated in onViewPositionChanged
+            if (mRenderMode == RENDER_MODE_HARDWARE || mSnapshotPreviewing) return;
 
             if (mPreFragment != null && mPreFragment.getView() != null) {
                 if (mCallOnDestroyView) {
@@ -328,6 +786,37 @@ public class SwipeBackLayout extends FrameLayout {
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mPreviewMode == PREVIEW_MODE_SNAPSHOT) {
+            scheduleSnapshot();
+        }
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (changedView != this || mPreviewMode != PREVIEW_MODE_SNAPSHOT) return;
+        // Hidden by a start(), or shown again as the top after a pop: the previous Fragment is hidden again
+        if (visibility == VISIBLE) {
+            scheduleSnapshot();
+        } else if (!mSnapshotPreviewing) {
+            releaseSnapshot();
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (mPreviewMode != PREVIEW_MODE_SNAPSHOT) return;
+        if (visibility == VISIBLE) {
+            scheduleSnapshot();
+        } else if (!mSnapshotPreviewing) {
+            releaseSnapshot();
+        }
+    }
+
     public void attachToActivity(FragmentActivity activity) {
         mActivity = activity;
         TypedArray a = activity.getTheme().obtainStyledAttributes(new int[]{
@@ -358,6 +847,34 @@ public class SwipeBackLayout extends FrameLayout {
         mEnable = enable;
     }
 
+    /**
+     * The first fragment below mFragment which has a view.
+     */
+    private Fragment findPreFragment() {
+        Fragment self = (Fragment) mFragment;
+        FragmentManager fragmentManager = self.getFragmentManager();
+        FragmentStackIndex index = FragmentStackIndex.get(fragmentManager);
+        if (index != null) {
+            Fragment fragment = index.getPrevious(self);
+            while (fragment != null && fragment.getView() == null) {
+                fragment = index.getPrevious(fragment);
+            }
+            return fragment;
+        }
+
+        List<Fragment> fragmentList = FragmentationHack.getActiveFragments(fragmentManager);
+        if (fragmentList != null && fragmentList.size() > 1) {
+            int i = fragmentList.indexOf(self);
+            for (i = i - 1; i >= 0; i--) {
+                Fragment fragment = fragmentList.get(i);
+                if (fragment != null && fragment.getView() != null) {
+                    return fragment;
+                }
+            }
+        }
+        return null;
+    }
+
     private class ViewDragCallback extends ViewDragHelper.Callback {
 
         @Override
@@ -370,25 +887,29 @@ public class SwipeBackLayout extends FrameLayout {
                     mCurrentSwipeOrientation = EDGE_RIGHT;
                 }
 
-                if (mListeners != null && !mListeners.isEmpty()) {
-                    for (OnSwipeListener listener : mListeners) {
-                        listener.onEdgeTouch(mCurrentSwipeOrientation);
-                    }
+                if (mCaptureGate != null && !mCaptureGate.onCaptureRequest(mCurrentSwipeOrientation)) {
+                    mCapturePending = true;
+                    return false;
                 }
+                mCapturePending = false;
 
-                if (mPreFragment == null) {
+                dispatchEdgeTouch(mCurrentSwipeOrientation);
+
+                boolean snapshot = mPreviewMode == PREVIEW_MODE_SNAPSHOT && hasFreshSnapshot();
+                if (!snapshot) {
+                    // The live view this time, redrawn into the same bitmap when the drag ends
+                    mSnapshotFragment = null;
+                }
+                if (snapshot) {
+                    // The hidden view is left untouched until the pop commits
+                    mPreFragment = mSnapshotFragment;
+                    mSnapshotPreviewing = true;
+                } else if (mPreFragment == null) {
                     if (mFragment != null) {
-                        List<Fragment> fragmentList = FragmentationHack.getActiveFragments(((Fragment) mFragment).getFragmentManager());
-                        if (fragmentList != null && fragmentList.size() > 1) {
-                            int index = fragmentList.indexOf(mFragment);
-                            for (int i = index - 1; i >= 0; i--) {
-                                Fragment fragment = fragmentList.get(i);
-                                if (fragment != null && fragment.getView() != null) {
-                                    fragment.getView().setVisibility(VISIBLE);
-                                    mPreFragment = fragment;
-                                    break;
-                                }
-                            }
+                        Fragment fragment = findPreFragment();
+                        if (fragment != null) {
+                            fragment.getView().setVisibility(VISIBLE);
+                            mPreFragment = fragment;
                         }
                     }
                 } else {
@@ -401,6 +922,15 @@ public class SwipeBackLayout extends FrameLayout {
             return dragEnable;
         }
 
+        @Override
+        public void onViewCaptured(View capturedChild, int activePointerId) {
+            super.onViewCaptured(capturedChild, activePointerId);
+            if (mRenderMode == RENDER_MODE_HARDWARE) {
+                prepareShadowBounds(capturedChild);
+                promoteLayers();
+            }
+        }
+
         @Override
         public int clampViewPositionHorizontal(View child, int left, int dx) {
             int ret = 0;
@@ -421,21 +951,34 @@ public class SwipeBackLayout extends FrameLayout {
             } else if ((mCurrentSwipeOrientation & EDGE_RIGHT) != 0) {
                 mScrollPercent = Math.abs((float) left / (mContentView.getWidth() + mShadowRight.getIntrinsicWidth()));
             }
+            int oldLeft = mContentLeft;
             mContentLeft = left;
             mContentTop = top;
-            invalidate();
-
-            if (mListeners != null && !mListeners.isEmpty()
-                    && mHelper.getViewDragState() == STATE_DRAGGING && mScrollPercent <= 1 && mScrollPercent > 0) {
-                for (OnSwipeListener listener : mListeners) {
-                    listener.onDragScrolled(mScrollPercent);
+            if (mRenderMode == RENDER_MODE_HARDWARE) {
+                mScrimOpacity = 1 - mScrollPercent;
+                invalidateScrimRegion(oldLeft, left);
+                if (mSnapshotPreviewing) {
+                    updateSnapshotTranslation(changedView);
+                } else {
+                    updatePreViewTranslation(changedView);
                 }
+            } else {
+                if (mSnapshotPreviewing) {
+                    mScrimOpacity = 1 - mScrollPercent;
+                    updateSnapshotTranslation(changedView);
+                }
+                invalidate();
+            }
+
+            if (mHelper.getViewDragState() == STATE_DRAGGING && mScrollPercent <= 1 && mScrollPercent > 0) {
+                dispatchDragScrolled(mScrollPercent);
             }
 
             if (mScrollPercent > 1) {
                 if (mFragment != null) {
                     if (mCallOnDestroyView) return;
 
+                    showLivePreView();
                     if (mPreFragment instanceof ISupportFragment) {
                         ((ISupportFragment) mPreFragment).getSupportDelegate().mLockAnim = true;
                     }
@@ -488,11 +1031,19 @@ public class SwipeBackLayout extends FrameLayout {
         @Override
         public void onViewDragStateChanged(int state) {
             super.onViewDragStateChanged(state);
-            if (mListeners != null && !mListeners.isEmpty()) {
-                for (OnSwipeListener listener : mListeners) {
-                    listener.onDragStateChange(state);
+            if (state == STATE_IDLE) {
+                mSnapshotPreviewing = false;
+                if (mRenderMode == RENDER_MODE_HARDWARE) {
+                    releaseLayers();
+                    // Clear the last scrim
+                    invalidate();
+                }
+                if (mPreviewMode == PREVIEW_MODE_SNAPSHOT) {
+                    // Recaptured only if the live view was shown or it changed, the previous Fragment is hidden again by then
+                    scheduleSnapshot();
                 }
             }
+            dispatchDragStateChange(state);
         }
 
         @Override
@@ -500,10 +1051,25 @@ public class SwipeBackLayout extends FrameLayout {
             super.onEdgeTouched(edgeFlags, pointerId);
             if ((mEdgeFlag & edgeFlags) != 0) {
                 mCurrentSwipeOrientation = edgeFlags;
+                if (mCaptureGate != null) {
+                    mCapturePending = true;
+                    mCaptureGate.onEdgeTouched(edgeFlags);
+                }
             }
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseLayers();
+        releaseSnapshot();
+        if (mDragScrolledPending) {
+            mDragScrolledPending = false;
+            mDragScrolledScheduler.cancel();
+        }
+        super.onDetachedFromWindow();
+    }
+
     @Override
     public boolean onInterceptTouchEvent(MotionEvent ev) {
         if (!mEnable) return super.onInterceptTouchEvent(ev);
@@ -511,6 +1077,8 @@ public class SwipeBackLayout extends FrameLayout {
             return mHelper.shouldInterceptTouchEvent(ev);
         } catch (Exception e) {
             return false;
+        } finally {
+            checkCaptureAbandoned(ev);
         }
     }
 
@@ -518,6 +1086,19 @@ public class SwipeBackLayout extends FrameLayout {
     public boolean onTouchEvent(MotionEvent event) {
         if (!mEnable) return super.onTouchEvent(event);
         mHelper.processTouchEvent(event);
+        checkCaptureAbandoned(event);
         return true;
     }
+
+    private void checkCaptureAbandoned(MotionEvent event) {
+        if (!mCapturePending) return;
+        int action = event.getActionMasked();
+        if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+                && mHelper.getViewDragState() == STATE_IDLE) {
+            mCapturePending = false;
+            if (mCaptureGate != null) {
+                mCaptureGate.onCaptureAbandoned();
+            }
+        }
+    }
 }
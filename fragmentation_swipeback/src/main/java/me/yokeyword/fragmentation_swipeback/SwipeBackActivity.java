@@ -44,6 +44,15 @@ public class SwipeBackActivity extends SupportActivity implements ISwipeBackActi
         mDelegate.setSwipeBackEnable(enable);
     }
 
+    /**
+     * 窗口保持不透明, 只在滑动期间转换为透明
+     *
+     * @see SwipeBackActivityDelegate#setTranslucentOnDemand(boolean)
+     */
+    public void setTranslucentOnDemand(boolean onDemand) {
+        mDelegate.setTranslucentOnDemand(onDemand);
+    }
+
     /**
      * 限制SwipeBack的条件,默认栈内Fragment数 <= 1时 , 优先滑动退出Activity , 而不是Fragment
      *
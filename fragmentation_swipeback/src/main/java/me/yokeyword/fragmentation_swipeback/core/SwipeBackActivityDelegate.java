@@ -14,9 +14,27 @@ import me.yokeyword.fragmentation.SwipeBackLayout;
  */
 
 public class SwipeBackActivityDelegate {
+    private static final long CONVERSION_TIMEOUT = 500L;
+
     private FragmentActivity mActivity;
     private SwipeBackLayout mSwipeBackLayout;
 
+    private boolean mTranslucentOnDemand;
+    private boolean mTranslucent = true;
+    private boolean mConverting;
+    private boolean mConversionTimedOut;
+    private boolean mConversionFailed;
+    private boolean mRevertWhenConverted;
+    private SwipeBackLayout.OnSwipeListener mTranslucentListener;
+    private SwipeBackLayout.CaptureGate mTranslucentGate;
+    private final Runnable mConversionTimeout = new Runnable() {
+        @Override
+        public void run() {
+            // Still opaque as far as we know, the next edge touch converts again
+            mConversionTimedOut = true;
+        }
+    };
+
     public SwipeBackActivityDelegate(ISwipeBackActivity swipeBackActivity) {
         if (!(swipeBackActivity instanceof FragmentActivity) || !(swipeBackActivity instanceof ISupportActivity))
             throw new RuntimeException("Must extends FragmentActivity/AppCompatActivity and implements ISupportActivity");
@@ -29,6 +47,9 @@ public class SwipeBackActivityDelegate {
 
     public void onPostCreate(Bundle savedInstanceState) {
         mSwipeBackLayout.attachToActivity(mActivity);
+        if (mTranslucentOnDemand) {
+            enableTranslucentOnDemand();
+        }
     }
 
     public SwipeBackLayout getSwipeBackLayout() {
@@ -39,6 +60,36 @@ public class SwipeBackActivityDelegate {
         mSwipeBackLayout.setEnableGesture(enable);
     }
 
+    /**
+     * 窗口保持不透明, 只在滑动期间转换为透明, 避免每一帧都绘制下层的Activity. Default: false
+     * <p>
+     * The theme still sets android:windowIsTranslucent, the window is converted to opaque after onPostCreate,
+     * to translucent when a touch goes down on the edge, and back when the drag settles to idle without finishing
+     * (or the touch ends without a drag). The conversion is asynchronous, the drag is captured once it completes,
+     * so the first frames show the Activity below. If the window can't be converted, the Activity can't be swiped
+     * back any more (the Fragments still can). Below API 16 the window stays translucent.
+     */
+    public void setTranslucentOnDemand(boolean onDemand) {
+        if (mTranslucentOnDemand == onDemand) return;
+        mTranslucentOnDemand = onDemand;
+        // Attached in onPostCreate
+        if (mSwipeBackLayout == null || mSwipeBackLayout.getParent() == null) return;
+
+        if (onDemand) {
+            enableTranslucentOnDemand();
+        } else {
+            mSwipeBackLayout.removeSwipeListener(mTranslucentListener);
+            mSwipeBackLayout.setCaptureGate(null);
+            mTranslucentListener = null;
+            mTranslucentGate = null;
+            mRevertWhenConverted = false;
+            if (!mTranslucent && (!mConverting || mConversionTimedOut)) {
+                mConverting = false;
+                mTranslucent = TranslucentConverter.convertToTranslucent(mActivity, null);
+            }
+        }
+    }
+
     /**
      * 限制SwipeBack的条件,默认栈内Fragment数 <= 1时 , 优先滑动退出Activity , 而不是Fragment
      *
@@ -48,6 +99,98 @@ public class SwipeBackActivityDelegate {
         return mActivity.getSupportFragmentManager().getBackStackEntryCount() <= 1;
     }
 
+    private void enableTranslucentOnDemand() {
+        if (!TranslucentConverter.convertFromTranslucent(mActivity)) return;
+        mTranslucent = false;
+
+        mTranslucentGate = new SwipeBackLayout.CaptureGate() {
+            @Override
+            public void onEdgeTouched(int edgeFlag) {
+                // Otherwise the Fragment swipes back
+                if (((ISwipeBackActivity) mActivity).swipeBackPriority()) {
+                    convertToTranslucent();
+                }
+            }
+
+            @Override
+            public boolean onCaptureRequest(int edgeFlag) {
+                convertToTranslucent();
+                return mTranslucent;
+            }
+
+            @Override
+            public void onCaptureAbandoned() {
+                convertFromTranslucent();
+            }
+        };
+        mSwipeBackLayout.setCaptureGate(mTranslucentGate);
+
+        mTranslucentListener = new SwipeBackLayout.OnSwipeListener() {
+            @Override
+            public void onDragStateChange(int state) {
+                if (state == SwipeBackLayout.STATE_IDLE) {
+                    convertFromTranslucent();
+                }
+            }
+
+            @Override
+            public void onEdgeTouch(int oritentationEdgeFlag) {
+            }
+
+            @Override
+            public void onDragScrolled(float scrollPercent) {
+            }
+        };
+        mSwipeBackLayout.addSwipeListener(mTranslucentListener);
+    }
+
+    private void convertToTranslucent() {
+        mRevertWhenConverted = false;
+        // Requested again after the timeout: the listener isn't called if the Activity is finishing
+        // or the conversion is cancelled
+        if (mTranslucent || mConversionFailed || (mConverting && !mConversionTimedOut)) return;
+
+        mConverting = true;
+        mConversionTimedOut = false;
+        final SwipeBackLayout.CaptureGate gate = mTranslucentGate;
+        final Runnable onConverted = new Runnable() {
+            @Override
+            public void run() {
+                // Any of the requests, also after the timeout
+                if (!mConverting) return;
+                mSwipeBackLayout.removeCallbacks(mConversionTimeout);
+                mConverting = false;
+                mTranslucent = true;
+                // Unless turned off meanwhile
+                if (mRevertWhenConverted && gate == mTranslucentGate) {
+                    convertFromTranslucent();
+                }
+            }
+        };
+        if (TranslucentConverter.convertToTranslucent(mActivity, onConverted)) {
+            // The capture is refused until the listener is called, the timeout only allows a new request
+            if (mConverting) {
+                mSwipeBackLayout.removeCallbacks(mConversionTimeout);
+                mSwipeBackLayout.postDelayed(mConversionTimeout, CONVERSION_TIMEOUT);
+            }
+        } else {
+            // Can't be converted, the drag would show the opaque window: the capture is always refused
+            mConverting = false;
+            mConversionFailed = true;
+        }
+    }
+
+    private void convertFromTranslucent() {
+        if (mConverting) {
+            mRevertWhenConverted = true;
+            return;
+        }
+        // Finished by the swipe, stays translucent for the exit
+        if (mTranslucent && !mActivity.isFinishing()) {
+            mTranslucent = !TranslucentConverter.convertFromTranslucent(mActivity);
+        }
+    }
+
     private void onActivityCreate() {
         mActivity.getWindow().setBackgroundDrawable(new ColorDrawable(Color.TRANSPARENT));
         mActivity.getWindow().getDecorView().setBackgroundDrawable(null);
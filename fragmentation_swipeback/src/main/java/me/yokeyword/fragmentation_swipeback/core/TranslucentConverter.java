@@ -0,0 +1,106 @@
+package me.yokeyword.fragmentation_swipeback.core;
+
+import android.app.Activity;
+import android.app.ActivityOptions;
+import android.os.Build;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * 运行时切换Activity窗口的透明: Activity.convertFromTranslucent()/convertToTranslucent() are hidden APIs.
+ * <p>
+ * They work on an Activity whose theme sets android:windowIsTranslucent, from API 16.
+ * Converting to translucent is asynchronous, the Activity below is drawn again once it completes,
+ * the Activity.TranslucentConversionListener is implemented by a Proxy to know when.
+ */
+class TranslucentConverter {
+    private static Method sFromTranslucentMethod;
+    private static Method sToTranslucentMethod;
+    private static Method sGetActivityOptionsMethod;
+    private static Class<?> sListenerClass;
+
+    /**
+     * @return false if the window can't be converted, it stays translucent then.
+     */
+    static boolean convertFromTranslucent(Activity activity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return false;
+        try {
+            if (sFromTranslucentMethod == null) {
+                Method method = Activity.class.getDeclaredMethod("convertFromTranslucent");
+                method.setAccessible(true);
+                sFromTranslucentMethod = method;
+            }
+            sFromTranslucentMethod.invoke(activity);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param onComplete called on the main thread once the Activity below is drawn, may be null
+     * @return false if the window can't be converted, or onComplete can't be called, nothing is converted then.
+     */
+    static boolean convertToTranslucent(Activity activity, Runnable onComplete) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return false;
+        try {
+            if (sToTranslucentMethod == null) {
+                Class<?> listenerClass = null;
+                for (Class<?> clazz : Activity.class.getDeclaredClasses()) {
+                    if (clazz.getSimpleName().contains("TranslucentConversionListener")) {
+                        listenerClass = clazz;
+                    }
+                }
+                sListenerClass = listenerClass;
+                Method method;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    Method getActivityOptions = Activity.class.getDeclaredMethod("getActivityOptions");
+                    getActivityOptions.setAccessible(true);
+                    sGetActivityOptionsMethod = getActivityOptions;
+                    method = Activity.class.getDeclaredMethod("convertToTranslucent", listenerClass, ActivityOptions.class);
+                } else {
+                    method = Activity.class.getDeclaredMethod("convertToTranslucent", listenerClass);
+                }
+                method.setAccessible(true);
+                sToTranslucentMethod = method;
+            }
+
+            Object listener = createListener(onComplete);
+            // Can't tell when it completes
+            if (listener == null && onComplete != null) return false;
+            if (sGetActivityOptionsMethod != null) {
+                Object options = sGetActivityOptionsMethod.invoke(activity);
+                sToTranslucentMethod.invoke(activity, listener, options);
+            } else {
+                sToTranslucentMethod.invoke(activity, listener);
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static Object createListener(final Runnable onComplete) {
+        if (onComplete == null || sListenerClass == null) return null;
+        return Proxy.newProxyInstance(sListenerClass.getClassLoader(), new Class<?>[]{sListenerClass}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "onTranslucentConversionComplete":
+                        onComplete.run();
+                        return null;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "TranslucentConversionListener@" + Integer.toHexString(System.identityHashCode(proxy));
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+}